@@ -0,0 +1,105 @@
+package com.gliwka.hyperscan.util;
+
+import com.gliwka.hyperscan.wrapper.*;
+import lombok.NonNull;
+
+import java.util.*;
+
+/**
+ * Builds a database of logical combinations from typed {@link Condition}s.
+ * Sub-expressions are compiled with {@link ExpressionFlag#QUIET}, so only the combinations are reported,
+ * using the ids they have been added with. Sub-expressions shared by several combinations are compiled once.
+ * Sub-expressions get internal ids above the highest combination id.
+ *
+ * <pre>{@code
+ * try (Database db = new CombinationBuilder()
+ *         .add(1, Condition.of("foo").and(Condition.of("bar")))
+ *         .add(2, Condition.of("foo").and(Condition.not(Condition.of("baz"))))
+ *         .compile()) {
+ *     ...
+ * }
+ * }</pre>
+ */
+public class CombinationBuilder {
+    private final Map<Integer, Condition> combinations = new LinkedHashMap<>();
+
+    /**
+     * Adds a combination
+     *
+     * @param id        id the combination is reported with
+     * @param condition condition of the combination
+     * @return this builder
+     * @throws IllegalArgumentException if the id is negative or has already been added
+     */
+    public CombinationBuilder add(int id, @NonNull Condition condition) {
+        if (id < 0) {
+            throw new IllegalArgumentException("id must be >=0: " + id);
+        }
+        if (combinations.putIfAbsent(id, condition) != null) {
+            throw new IllegalArgumentException("Combination id " + id + " has already been added");
+        }
+        return this;
+    }
+
+    /**
+     * Creates the expressions for all combinations: the distinct sub-expressions followed by one
+     * {@link ExpressionFlag#COMBINATION} expression per combination.
+     *
+     * @return expressions to compile
+     * @throws IllegalStateException if no combination has been added or the ids are exhausted
+     */
+    public List<Expression> build() {
+        if (combinations.isEmpty()) {
+            throw new IllegalStateException("No combination has been added");
+        }
+
+        long nextId = Collections.max(combinations.keySet()) + 1L;
+        Map<Expression, Integer> subExpressionIds = new LinkedHashMap<>();
+        List<Expression> subExpressions = new ArrayList<>();
+
+        for (Condition condition : combinations.values()) {
+            condition.collect(subExpressions);
+        }
+        for (Expression subExpression : subExpressions) {
+            if (!subExpressionIds.containsKey(subExpression)) {
+                if (nextId > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("No ids left for sub-expressions");
+                }
+                subExpressionIds.put(subExpression, (int) nextId++);
+            }
+        }
+
+        List<Expression> expressions = new ArrayList<>(subExpressionIds.size() + combinations.size());
+        subExpressionIds.forEach((expression, id) ->
+                expressions.add(new Expression(expression.getExpression(), expression.getFlags(), id, expression.getExtendedParameters())));
+
+        combinations.forEach((id, condition) -> {
+            StringBuilder combination = new StringBuilder();
+            condition.write(combination, subExpressionIds::get);
+            expressions.add(new Expression(combination.toString(), EnumSet.of(ExpressionFlag.COMBINATION), id));
+        });
+
+        return expressions;
+    }
+
+    /**
+     * Compiles all combinations into a database
+     *
+     * @return Compiled database
+     * @throws CompileErrorException If any sub-expression or combination cannot be compiled
+     */
+    public Database compile() throws CompileErrorException {
+        return Database.compile(build());
+    }
+
+    /**
+     * Compiles all combinations into a database
+     *
+     * @param options Options for the database
+     * @return Compiled database
+     * @throws CompileErrorException If any sub-expression or combination cannot be compiled
+     */
+    public Database compile(@NonNull DatabaseOptions options) throws CompileErrorException {
+        return Database.compile(build(), options);
+    }
+}
@@ -0,0 +1,212 @@
+package com.gliwka.hyperscan.util;
+
+import com.gliwka.hyperscan.wrapper.Expression;
+import com.gliwka.hyperscan.wrapper.ExpressionFlag;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Boolean condition over expressions, compiled into a hyperscan logical combination by {@link CombinationBuilder}.
+ * Conditions are immutable and can be shared between several combinations.
+ *
+ * <pre>{@code
+ * Condition rule = Condition.of("foo").and(Condition.of("bar").or(Condition.of("baz")).negate());
+ * }</pre>
+ */
+@EqualsAndHashCode
+public abstract class Condition {
+    private Condition() {
+    }
+
+    /**
+     * Condition that is true as soon as the pattern matched
+     *
+     * @param pattern Regular expression pattern
+     * @return condition
+     */
+    public static Condition of(@NonNull String pattern) {
+        return of(pattern, EnumSet.noneOf(ExpressionFlag.class));
+    }
+
+    /**
+     * Condition that is true as soon as the pattern matched
+     *
+     * @param pattern Regular expression pattern
+     * @param flags   Flags of the pattern
+     * @return condition
+     */
+    public static Condition of(@NonNull String pattern, @NonNull EnumSet<ExpressionFlag> flags) {
+        return of(new Expression(pattern, flags));
+    }
+
+    /**
+     * Condition that is true as soon as the expression matched. The id of the expression is ignored,
+     * sub-expressions get internal ids assigned by {@link CombinationBuilder}.
+     *
+     * @param expression Expression, must not be a logical combination itself
+     * @return condition
+     * @throws IllegalArgumentException if the expression is a logical combination
+     */
+    public static Condition of(@NonNull Expression expression) {
+        if (expression.getFlags().contains(ExpressionFlag.COMBINATION)) {
+            throw new IllegalArgumentException("Logical combinations can't be used as sub-expressions: " + expression);
+        }
+
+        EnumSet<ExpressionFlag> flags = EnumSet.of(ExpressionFlag.QUIET);
+        for (ExpressionFlag flag : expression.getFlags()) {
+            if (flag != ExpressionFlag.NO_FLAG) {
+                flags.add(flag);
+            }
+        }
+
+        return new Leaf(new Expression(expression.getExpression(), flags, null, expression.getExtendedParameters()));
+    }
+
+    /**
+     * @param conditions conditions which all have to be true
+     * @return condition
+     */
+    public static Condition and(@NonNull Condition... conditions) {
+        return new Operation(" & ", Arrays.asList(conditions));
+    }
+
+    /**
+     * @param conditions conditions of which at least one has to be true
+     * @return condition
+     */
+    public static Condition or(@NonNull Condition... conditions) {
+        return new Operation(" | ", Arrays.asList(conditions));
+    }
+
+    /**
+     * @param condition condition which has to be false
+     * @return condition
+     */
+    public static Condition not(@NonNull Condition condition) {
+        return new Not(condition);
+    }
+
+    /**
+     * @param other condition which has to be true as well
+     * @return condition that is true if both conditions are true
+     */
+    public Condition and(@NonNull Condition other) {
+        return and(this, other);
+    }
+
+    /**
+     * @param other alternative condition
+     * @return condition that is true if any of the conditions is true
+     */
+    public Condition or(@NonNull Condition other) {
+        return or(this, other);
+    }
+
+    /**
+     * @return condition that is true if this condition is false
+     */
+    public Condition negate() {
+        return not(this);
+    }
+
+    /**
+     * Collects the sub-expressions of the condition
+     *
+     * @param expressions list to add the sub-expressions to
+     */
+    abstract void collect(List<Expression> expressions);
+
+    /**
+     * Writes the condition in hyperscan's logical combination syntax
+     *
+     * @param out output
+     * @param ids internal ids of the sub-expressions
+     */
+    abstract void write(StringBuilder out, ToIntFunction<Expression> ids);
+
+    @EqualsAndHashCode(callSuper = false)
+    private static final class Leaf extends Condition {
+        private final Expression expression;
+
+        Leaf(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        void collect(List<Expression> expressions) {
+            expressions.add(expression);
+        }
+
+        @Override
+        void write(StringBuilder out, ToIntFunction<Expression> ids) {
+            out.append(ids.applyAsInt(expression));
+        }
+    }
+
+    @EqualsAndHashCode(callSuper = false)
+    private static final class Operation extends Condition {
+        private final String operator;
+        private final List<Condition> operands;
+
+        Operation(String operator, List<Condition> conditions) {
+            // Copied, the list may be backed by the caller's varargs array
+            List<Condition> operands = Collections.unmodifiableList(new ArrayList<>(conditions));
+            if (operands.isEmpty()) {
+                throw new IllegalArgumentException("At least one condition is required");
+            }
+            for (Condition operand : operands) {
+                if (operand == null) {
+                    throw new NullPointerException("conditions must not contain null");
+                }
+            }
+            this.operator = operator;
+            this.operands = operands;
+        }
+
+        @Override
+        void collect(List<Expression> expressions) {
+            for (Condition operand : operands) {
+                operand.collect(expressions);
+            }
+        }
+
+        @Override
+        void write(StringBuilder out, ToIntFunction<Expression> ids) {
+            out.append('(');
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    out.append(operator);
+                }
+                operands.get(i).write(out, ids);
+            }
+            out.append(')');
+        }
+    }
+
+    @EqualsAndHashCode(callSuper = false)
+    private static final class Not extends Condition {
+        private final Condition operand;
+
+        Not(Condition operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        void collect(List<Expression> expressions) {
+            operand.collect(expressions);
+        }
+
+        @Override
+        void write(StringBuilder out, ToIntFunction<Expression> ids) {
+            out.append('!');
+            operand.write(out, ids);
+        }
+    }
+}
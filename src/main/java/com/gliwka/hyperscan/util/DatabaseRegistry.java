@@ -0,0 +1,295 @@
+package com.gliwka.hyperscan.util;
+
+import com.gliwka.hyperscan.wrapper.CompileErrorException;
+import com.gliwka.hyperscan.wrapper.Database;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Keeps databases for many keys (e.g. tenants) resident within a native memory budget.
+ * Databases are compiled or loaded on first use by a {@link Loader}. Once the total
+ * {@link Database#getSize()} of the resident databases exceeds the budget, the least recently used ones are evicted.
+ * <p>
+ * Databases are handed out as {@link Lease}s. An evicted database is closed once its last lease has been closed,
+ * so eviction never pulls a database from under an in-flight scan.
+ * A key is loaded only once, even if it is acquired by several threads at the same time.
+ * <p>
+ * This class is thread-safe.
+ *
+ * <pre>{@code
+ * try (DatabaseRegistry.Lease lease = registry.acquire(tenant)) {
+ *     scanner.scan(lease.getDatabase(), input);
+ * }
+ * }</pre>
+ *
+ * @param <K> key type
+ */
+public class DatabaseRegistry<K> implements Closeable {
+    /**
+     * Compiles or loads the database of a key
+     *
+     * @param <K> key type
+     */
+    @FunctionalInterface
+    public interface Loader<K> {
+        /**
+         * @param key key to create the database for
+         * @return database, owned by the registry from now on. Must not be null.
+         * @throws CompileErrorException if compiling the database fails
+         * @throws IOException           if loading the database fails
+         */
+        Database load(K key) throws CompileErrorException, IOException;
+    }
+
+    private final long budgetBytes;
+    private final Loader<K> loader;
+    private final LinkedHashMap<K, Entry<K>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+    private boolean closed;
+
+    /**
+     * @param budgetBytes native memory the resident databases may use in total
+     * @param loader      creates the database of a key on first use
+     */
+    public DatabaseRegistry(long budgetBytes, @NonNull Loader<K> loader) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budgetBytes must be >=0: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the database of a key, loading it if it isn't resident. The lease must be closed after use.
+     *
+     * @param key key of the database
+     * @return lease of the database
+     * @throws CompileErrorException if the loader fails to compile the database
+     * @throws IOException           if the loader fails to load the database
+     * @throws IllegalStateException if the registry has been closed
+     */
+    public Lease acquire(@NonNull K key) throws CompileErrorException, IOException {
+        Entry<K> entry;
+        boolean load = false;
+
+        synchronized (this) {
+            ensureOpen();
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry<>(key);
+                entries.put(key, entry);
+                load = true;
+            }
+            entry.references++;
+        }
+
+        if (load) {
+            load(entry);
+        }
+
+        try {
+            entry.database.join();
+        } catch (CompletionException e) {
+            release(entry);
+            throw rethrow(e.getCause());
+        }
+
+        return new Lease(this, entry);
+    }
+
+    /**
+     * Evicts the database of a key. It is closed once all of its leases have been closed.
+     * A database still being loaded is evicted as soon as loading completes, so the next {@link #acquire(Object)}
+     * always loads the key again.
+     *
+     * @param key key of the database
+     */
+    public synchronized void invalidate(@NonNull K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry != null) {
+            invalidate(entry);
+        }
+    }
+
+    /**
+     * @return the native memory budget in bytes
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return size of all resident databases in bytes, excluding evicted databases still in use
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return count of resident databases, including those currently being loaded
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Evicts all databases, closing them once all of their leases have been closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        for (Entry<K> entry : entries.values()) {
+            invalidate(entry);
+        }
+        entries.clear();
+    }
+
+    private void load(Entry<K> entry) {
+        Database database = null;
+        try {
+            database = loader.load(entry.key);
+            if (database == null) {
+                throw new NullPointerException("Loader returned null for key " + entry.key);
+            }
+            long size = database.getSize();
+
+            synchronized (this) {
+                if (entry.invalidated) {
+                    // Already removed from the entries, released by the leases handed out for it
+                    entry.evicted = true;
+                } else {
+                    entry.size = size;
+                    residentBytes += entry.size;
+                    evict(entry);
+                }
+                entry.database.complete(database);
+            }
+        } catch (CompileErrorException | IOException | RuntimeException | Error e) {
+            if (database != null) {
+                database.close();
+            }
+            synchronized (this) {
+                entries.remove(entry.key, entry);
+            }
+            entry.database.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Evicts the least recently used databases until the budget is met, keeping the database just loaded
+     */
+    private void evict(Entry<K> loaded) {
+        Iterator<Entry<K>> iterator = entries.values().iterator();
+
+        while (residentBytes > budgetBytes && iterator.hasNext()) {
+            Entry<K> entry = iterator.next();
+            if (entry != loaded && entry.database.isDone()) {
+                iterator.remove();
+                retire(entry);
+            }
+        }
+    }
+
+    /**
+     * Retires an entry removed from the entries, or marks it to be retired by {@link #load(Entry)} while it is loading
+     */
+    private void invalidate(Entry<K> entry) {
+        if (entry.database.isDone()) {
+            retire(entry);
+        } else {
+            entry.invalidated = true;
+        }
+    }
+
+    private void retire(Entry<K> entry) {
+        residentBytes -= entry.size;
+        entry.evicted = true;
+        closeIfUnused(entry);
+    }
+
+    private synchronized void release(Entry<?> entry) {
+        entry.references--;
+        closeIfUnused(entry);
+    }
+
+    private void closeIfUnused(Entry<?> entry) {
+        if (entry.evicted && entry.references == 0 && !entry.database.isCompletedExceptionally()) {
+            entry.database.join().close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Registry has already been closed");
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) throws CompileErrorException, IOException {
+        if (cause instanceof CompileErrorException) {
+            throw (CompileErrorException) cause;
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (RuntimeException) cause;
+    }
+
+    private static final class Entry<K> {
+        private final K key;
+        private final CompletableFuture<Database> database = new CompletableFuture<>();
+        private long size;
+        private int references;
+        private boolean evicted;
+        private boolean invalidated;
+
+        private Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Use of a database handed out by {@link #acquire(Object)}. Closing the lease doesn't close the database,
+     * unless it has been evicted in the meantime.
+     */
+    public static final class Lease implements Closeable {
+        private final DatabaseRegistry<?> registry;
+        private Entry<?> entry;
+
+        private Lease(DatabaseRegistry<?> registry, Entry<?> entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        /**
+         * @return the database, valid until the lease is closed
+         * @throws IllegalStateException if the lease has been closed
+         */
+        public Database getDatabase() {
+            if (entry == null) {
+                throw new IllegalStateException("Lease has already been closed");
+            }
+            return entry.database.join();
+        }
+
+        /**
+         * Releases the database
+         */
+        @Override
+        public void close() {
+            if (entry != null) {
+                registry.release(entry);
+                entry = null;
+            }
+        }
+    }
+}
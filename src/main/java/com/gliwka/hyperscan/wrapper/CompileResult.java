@@ -0,0 +1,47 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Result of a lenient compilation: a database containing every valid expression and
+ * the errors of all expressions that have been left out.
+ *
+ * @see Database#compileLenient(List)
+ */
+public class CompileResult implements Closeable {
+    /**
+     * Database of all valid expressions, or null if no expression is valid
+     */
+    @Getter private final Database database;
+
+    /**
+     * One error per rejected expression, in the order of the compiled list.
+     * {@link CompileErrorException#getFailedExpression()} is the rejected expression.
+     */
+    @Getter private final List<CompileErrorException> errors;
+
+    CompileResult(Database database, List<CompileErrorException> errors) {
+        this.database = database;
+        this.errors = errors;
+    }
+
+    /**
+     * @return true if every expression has been compiled into the database
+     */
+    public boolean isComplete() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * Closes the database, if any
+     */
+    @Override
+    public void close() {
+        if (database != null) {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.gliwka.hyperscan.wrapper;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * CPU features a database may be compiled to use
+ *
+ * @see Platform
+ */
+public enum CpuFeature {
+    /**
+     * Intel(R) Advanced Vector Extensions 2 (Intel(R) AVX2)
+     */
+    AVX2(HS_CPU_FEATURES_AVX2),
+
+    /**
+     * Intel(R) Advanced Vector Extensions 512 (Intel(R) AVX512)
+     */
+    AVX512(HS_CPU_FEATURES_AVX512),
+
+    /**
+     * Intel(R) Advanced Vector Extensions 512 Vector Byte Manipulation Instructions (Intel(R) AVX512VBMI)
+     */
+    AVX512VBMI(HS_CPU_FEATURES_AVX512VBMI);
+
+    private final long bits;
+
+    CpuFeature(long bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Get the significant bits for the feature
+     * @return long containing the significant bit for the feature
+     */
+    public long getBits() {
+        return bits;
+    }
+}
@@ -2,13 +2,22 @@ package com.gliwka.hyperscan.wrapper;
 
 import com.gliwka.hyperscan.jni.hs_compile_error_t;
 import com.gliwka.hyperscan.jni.hs_database_t;
+import com.gliwka.hyperscan.jni.hs_platform_info_t;
+import lombok.NonNull;
 import org.bytedeco.javacpp.*;
 
 import java.io.*;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import static com.gliwka.hyperscan.jni.hyperscan.*;
 import static java.util.Collections.singletonList;
@@ -18,11 +27,65 @@ import static java.util.function.Function.identity;
  * Database containing compiled expressions ready for scanning using the Scanner
  */
 public class Database implements Closeable {
-    private final Map<Integer, Expression> expressions;
+    // "HSJD", chosen so it can never be mistaken for the expression count leading the legacy format
+    private static final int FORMAT_MAGIC = 0x48534A44;
+    private static final int FORMAT_VERSION = 1;
+    private static final Pattern SUB_EXPRESSION_ID = Pattern.compile("\\d+");
+
+    /**
+     * Expressions by position when using {@link ExpressionStorage#OBJECTS}, otherwise null
+     */
+    private final Expression[] expressions;
+
+    /**
+     * Expression metadata when using {@link ExpressionStorage#COMPACT} or {@link ExpressionStorage#COMPACT_OFF_HEAP},
+     * otherwise null
+     */
+    private final ExpressionTable table;
+
+    private final IdIndex index;
     private final int expressionCount;
 
+    /**
+     * Minimum width in bytes of a match of any expression, negative until known
+     */
+    private volatile int minWidth;
+
+    private final DatabaseOptions options;
+
+    /**
+     * Whether any expression interprets the input as UTF-8
+     */
+    private final boolean utf8;
+
+    /**
+     * Variant used by {@link Scanner#hasMatch(Database, ByteBuffer)}, see {@link DatabaseOptions#isExistenceVariant()}.
+     * Null until first requested.
+     */
+    private volatile Database existenceVariant;
+
+    /**
+     * Groups of identical expressions compiled only once, or null
+     */
+    private final ExpressionGroups groups;
+
+    /**
+     * Payloads by expression position, or null
+     */
+    private final Object[] payloads;
+
+    /**
+     * Tags by expression position, or null
+     */
+    private final long[] tags;
+
     private NativeDatabase database;
 
+    /**
+     * Identity of this database for the scratch bookkeeping of {@link Scanner}, {@link #equals(Object)} compares expressions
+     */
+    private final Object scratchKey = new Object();
+
     private static class NativeDatabase extends hs_database_t {
         void registerDeallocator() {
             hs_database_t p = new hs_database_t(this);
@@ -30,34 +93,41 @@ public class Database implements Closeable {
         }
     }
 
-    private Database(NativeDatabase database, List<Expression> expressions) {
+    private Database(NativeDatabase database, ExpressionTable table, IdIndex index, ExpressionGroups groups, int minWidth,
+                     List<Expression> expressions, Object[] payloads, long[] tags, DatabaseOptions options) {
         this.database = database;
-        this.expressionCount = expressions.size();
+        this.expressionCount = table.size();
+        this.minWidth = minWidth;
+        this.options = options;
+        this.index = index;
+        this.groups = groups;
+        this.payloads = payloads;
+        this.tags = tags;
+        this.utf8 = isUtf8(table);
         database.registerDeallocator();
 
-        boolean hasIds = expressions.get(0).getId() != null;
-
-        this.expressions = new HashMap<>(expressionCount);
-        if (hasIds) {
-            for (Expression expression : expressions) {
-                if (this.expressions.put(expression.getId(), expression) != null)
-                    throw new IllegalStateException("Expression ID must be unique within a Database.");
-            }
+        if (options.getExpressionStorage() == ExpressionStorage.OBJECTS) {
+            this.expressions = expressions == null ? toExpressions(table) : expressions.toArray(new Expression[0]);
+            this.table = null;
         } else {
-            int i = 0;
-            for (Expression expression : expressions) {
-                this.expressions.put(i++, expression);
-            }
+            this.expressions = null;
+            this.table = table;
         }
     }
 
-    private static void handleErrors(int hsError, hs_compile_error_t compileError, List<Expression> expressions) throws CompileErrorException {
+    private static void handleErrors(int hsError, hs_compile_error_t compileError, ExpressionTable table, List<Expression> expressions,
+                                     NativeExpressionCollection nativeExpressions) throws CompileErrorException {
         if (hsError == 0) {
             return;
         }
 
         if (hsError == HS_COMPILER_ERROR) {
-            Expression expression = compileError.expression() < 0 ? null : expressions.get(compileError.expression());
+            int nativeIndex = compileError.expression();
+            Expression expression = null;
+            if (nativeIndex >= 0) {
+                int position = nativeExpressions.getPosition(nativeIndex);
+                expression = expressions != null ? expressions.get(position) : table.getExpression(position);
+            }
             throw new CompileErrorException(compileError.message().getString(), expression);
         } else {
             throw HyperscanException.hsErrorToException(hsError);
@@ -94,26 +164,348 @@ public class Database implements Closeable {
      * @throws CompileErrorException If any of the expressions cannot be compiled
      */
     public static Database compile(List<Expression> expressions) throws CompileErrorException {
+        return compile(expressions, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles a list of expressions into a database to use for scanning
+     *
+     * @param expressions List of expressions to compile
+     * @param options     Options for the database
+     * @return Compiled database
+     * @throws CompileErrorException If any of the expressions cannot be compiled
+     */
+    public static Database compile(List<Expression> expressions, @NonNull DatabaseOptions options) throws CompileErrorException {
+        return compile(expressions, null, null, -1, options);
+    }
+
+    /**
+     * Compiles all valid expressions of a list into a database, collecting the errors of all invalid ones
+     * instead of failing on the first. The expressions are validated in parallel first, so even large rule sets
+     * with many broken expressions only need a single compilation.
+     * Use expressions with ids, as expressions without ids are numbered by their position among the valid ones.
+     *
+     * @param expressions List of expressions to compile
+     * @return Database of all valid expressions together with the errors of the rejected ones
+     * @throws CompileErrorException If the database can't be compiled for a reason not related to a single expression
+     */
+    public static CompileResult compileLenient(List<Expression> expressions) throws CompileErrorException {
+        return compileLenient(expressions, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles all valid expressions of a list into a database, collecting the errors of all invalid ones.
+     *
+     * @param expressions List of expressions to compile
+     * @param options     Options for the database
+     * @return Database of all valid expressions together with the errors of the rejected ones
+     * @throws CompileErrorException If the database can't be compiled for a reason not related to a single expression
+     * @see #compileLenient(List)
+     */
+    public static CompileResult compileLenient(List<Expression> expressions, @NonNull DatabaseOptions options) throws CompileErrorException {
+        int count = expressions.size();
+
+        // hs_expression_info doesn't support logical combinations, the compiler reports them below
+        Expression.ValidationResult[] validations = new Expression.ValidationResult[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            Expression expression = expressions.get(i);
+            if (!expression.getFlags().contains(ExpressionFlag.COMBINATION)) {
+                validations[i] = expression.validate();
+            }
+        });
+
+        List<Integer> validPositions = new ArrayList<>(count);
+        CompileErrorException[] errors = new CompileErrorException[count];
+        for (int i = 0; i < count; i++) {
+            if (validations[i] == null || validations[i].isValid()) {
+                validPositions.add(i);
+            } else {
+                errors[i] = new CompileErrorException(validations[i].getErrorMessage(), expressions.get(i));
+            }
+        }
+
+        rejectUnresolvableCombinations(expressions, validPositions, errors);
+
+        Database database = null;
+        while (!validPositions.isEmpty() && database == null) {
+            List<Expression> valid = validPositions.stream().map(expressions::get).collect(Collectors.toList());
+            try {
+                database = compile(valid, null, null, minWidth(validations, validPositions), options);
+            } catch (CompileErrorException e) {
+                // Some errors are only detected by the full compiler, e.g. pattern size limits or combinations
+                // referencing a rejected expression. Leave out the offending expression and try again.
+                if (e.getFailedExpression() == null) {
+                    throw e;
+                }
+
+                int failed = indexOfIdentity(valid, e.getFailedExpression());
+                errors[validPositions.remove(failed)] = e;
+            }
+        }
+
+        List<CompileErrorException> rejected = Arrays.stream(errors).filter(Objects::nonNull).collect(Collectors.toList());
+        return new CompileResult(database, rejected);
+    }
+
+    /**
+     * hyperscan reports a combination referencing an unknown id without telling which combination it is,
+     * so combinations referencing rejected or missing expressions are left out up front.
+     * Repeats until no more combinations are rejected, as combinations can reference other combinations.
+     */
+    private static void rejectUnresolvableCombinations(List<Expression> expressions, List<Integer> validPositions, CompileErrorException[] errors) {
+        boolean rejected = true;
+        while (rejected) {
+            rejected = false;
+            Set<Integer> validIds = validPositions.stream().map(i -> expressions.get(i).getId()).collect(Collectors.toSet());
+
+            for (Iterator<Integer> positions = validPositions.iterator(); positions.hasNext(); ) {
+                int position = positions.next();
+                Expression expression = expressions.get(position);
+                if (!expression.getFlags().contains(ExpressionFlag.COMBINATION)) {
+                    continue;
+                }
+
+                Matcher subExpressionId = SUB_EXPRESSION_ID.matcher(expression.getExpression());
+                while (subExpressionId.find()) {
+                    Integer id = parseId(subExpressionId.group());
+                    if (id == null || !validIds.contains(id)) {
+                        errors[position] = new CompileErrorException("Unknown sub-expression id.", expression);
+                        positions.remove();
+                        rejected = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyzes all expressions in parallel to find the minimum width of a match of the whole database
+     */
+    private static int computeMinWidth(ExpressionTable table, ExpressionGroups groups) {
+        // Reads the patterns straight from the table, so no Expression instances are created
+        return IntStream.range(0, table.size())
+                .parallel()
+                .filter(position -> groups == null || groups.isCanonical(position))
+                .map(position -> minWidth(table, position))
+                .min()
+                .orElse(0);
+    }
+
+    private static int minWidth(ExpressionTable table, int position) {
+        if (table.isLiteral()) {
+            return table.getPatternOffset(position + 1) - table.getPatternOffset(position);
+        }
+
+        // Logical combinations can't be analyzed and may match as soon as a sub-expression doesn't
+        if (table.getFlags(position).contains(ExpressionFlag.COMBINATION)) {
+            return 0;
+        }
+
+        int from = table.getPatternOffset(position);
+        ByteBuffer patterns = table.getPatterns();
+        ((Buffer) patterns).limit(table.getPatternOffset(position + 1)).position(from);
+
+        // NUL terminated, as hs_expression_info takes a C string
+        byte[] pattern = new byte[patterns.remaining() + 1];
+        patterns.get(pattern, 0, pattern.length - 1);
+
+        Expression.ValidationResult result = Expression.validate(pattern, table.getFlagBits(position), table.getExtendedParameters(position));
+        return result.isValid() ? result.getInfo().getMinWidth() : 0;
+    }
+
+    /**
+     * @return the minimum width of the valid expressions from the validation pass of {@link #compileLenient(List, DatabaseOptions)}
+     */
+    private static int minWidth(Expression.ValidationResult[] validations, List<Integer> validPositions) {
+        int minWidth = Integer.MAX_VALUE;
+        for (int position : validPositions) {
+            // Logical combinations haven't been validated and may match as soon as a sub-expression doesn't
+            minWidth = Math.min(minWidth, validations[position] == null ? 0 : validations[position].getInfo().getMinWidth());
+        }
+        return validPositions.isEmpty() ? 0 : minWidth;
+    }
+
+    private static Integer parseId(String id) {
+        try {
+            return Integer.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int indexOfIdentity(List<Expression> expressions, Expression expression) {
+        for (int i = 0; i < expressions.size(); i++) {
+            if (expressions.get(i) == expression) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Failed expression is not part of the compiled list");
+    }
+
+    /**
+     * Compiles a list of expressions into a database and attaches a payload to each expression.
+     * The payload of a matching expression is handed directly to a {@link PayloadMatchEventHandler},
+     * so match handlers don't need a lookup of their own.
+     *
+     * @param expressions List of expressions to compile
+     * @param payloads    Payloads in the same order as the expressions, entries may be null
+     * @return Compiled database
+     * @throws CompileErrorException If any of the expressions cannot be compiled
+     * @throws IllegalArgumentException If the number of payloads and expressions differ
+     * @see Scanner#scan(Database, String, PayloadMatchEventHandler)
+     */
+    public static Database compile(List<Expression> expressions, @NonNull List<?> payloads) throws CompileErrorException {
+        return compile(expressions, payloads, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles a list of expressions into a database and attaches a payload to each expression.
+     *
+     * @param expressions List of expressions to compile
+     * @param payloads    Payloads in the same order as the expressions, entries may be null
+     * @param options     Options for the database
+     * @return Compiled database
+     * @throws CompileErrorException If any of the expressions cannot be compiled
+     * @throws IllegalArgumentException If the number of payloads and expressions differ
+     * @see #compile(List, List)
+     */
+    public static Database compile(List<Expression> expressions, @NonNull List<?> payloads, @NonNull DatabaseOptions options) throws CompileErrorException {
+        if (payloads.size() != expressions.size()) {
+            throw new IllegalArgumentException("Expected " + expressions.size() + " payloads, got " + payloads.size());
+        }
+        return compile(expressions, payloads.toArray(), null, -1, options);
+    }
+
+    /**
+     * Compiles a list of expressions into a database and attaches a primitive tag to each expression.
+     * The tag of a matching expression is handed directly to a {@link TagMatchEventHandler} without boxing.
+     *
+     * @param expressions List of expressions to compile
+     * @param tags        Tags in the same order as the expressions
+     * @return Compiled database
+     * @throws CompileErrorException If any of the expressions cannot be compiled
+     * @throws IllegalArgumentException If the number of tags and expressions differ
+     * @see Scanner#scanTagged(Database, String, TagMatchEventHandler)
+     */
+    public static Database compile(List<Expression> expressions, @NonNull long[] tags) throws CompileErrorException {
+        return compile(expressions, tags, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles a list of expressions into a database and attaches a primitive tag to each expression.
+     *
+     * @param expressions List of expressions to compile
+     * @param tags        Tags in the same order as the expressions
+     * @param options     Options for the database
+     * @return Compiled database
+     * @throws CompileErrorException If any of the expressions cannot be compiled
+     * @throws IllegalArgumentException If the number of tags and expressions differ
+     * @see #compile(List, long[])
+     */
+    public static Database compile(List<Expression> expressions, @NonNull long[] tags, @NonNull DatabaseOptions options) throws CompileErrorException {
+        if (tags.length != expressions.size()) {
+            throw new IllegalArgumentException("Expected " + expressions.size() + " tags, got " + tags.length);
+        }
+        return compile(expressions, null, tags.clone(), -1, options);
+    }
+
+    /**
+     * @param minWidth the minimum width if already known, otherwise negative
+     */
+    private static Database compile(List<Expression> expressions, Object[] payloads, long[] tags, int minWidth,
+                                    DatabaseOptions options) throws CompileErrorException {
+        // Combinations reference sub-expressions by id, so every id has to be known to hyperscan
+        boolean deduplicate = options.isDeduplicateExpressions()
+                && expressions.stream().noneMatch(expression -> expression.getFlags().contains(ExpressionFlag.COMBINATION));
+
+        ExpressionTable table = ExpressionTable.of(expressions, options.getExpressionStorage() == ExpressionStorage.COMPACT_OFF_HEAP, deduplicate);
+        return compile(table, expressions, payloads, tags, minWidth, options);
+    }
+
+    /**
+     * Compiles a list of literals into a database to use for scanning.
+     * Literals are matched byte for byte without parsing them as regular expressions, which compiles
+     * large literal sets considerably faster. {@link #getExpression(int)} returns an equivalent regular expression
+     * with all non alphanumeric bytes escaped.
+     *
+     * @param literals List of literals to compile
+     * @return Compiled database
+     * @throws CompileErrorException If any of the literals cannot be compiled, e.g. due to an unsupported flag
+     */
+    public static Database compileLiterals(List<Literal> literals) throws CompileErrorException {
+        return compileLiterals(literals, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles a list of literals into a database to use for scanning.
+     *
+     * @param literals List of literals to compile
+     * @param options  Options for the database
+     * @return Compiled database
+     * @throws CompileErrorException If any of the literals cannot be compiled, e.g. due to an unsupported flag
+     * @see #compileLiterals(List)
+     */
+    public static Database compileLiterals(@NonNull List<Literal> literals, @NonNull DatabaseOptions options) throws CompileErrorException {
+        ExpressionTable table = ExpressionTable.ofLiterals(literals, options.getExpressionStorage() == ExpressionStorage.COMPACT_OFF_HEAP, options.isDeduplicateExpressions());
+        return compile(table, null, null, null, options);
+    }
+
+    private static Database compile(ExpressionTable table, List<Expression> expressions, Object[] payloads, long[] tags, DatabaseOptions options) throws CompileErrorException {
+        return compile(table, expressions, payloads, tags, -1, options);
+    }
+
+    /**
+     * @param expressions the compiled expressions, to report the original instance on errors. Null for literals.
+     * @param minWidth    the minimum width if already known, otherwise negative to analyze the expressions
+     *                    if {@link DatabaseOptions#isAnalyzeMinWidth()} is set or for literals
+     */
+    private static Database compile(ExpressionTable table, List<Expression> expressions, Object[] payloads, long[] tags, int minWidth,
+                                    DatabaseOptions options) throws CompileErrorException {
+        IdIndex index = IdIndex.of(table);
+        ExpressionGroups groups = ExpressionGroups.of(table, index);
+
         try (
-                NativeExpressionCollection nativeExpressions = new NativeExpressionCollection(expressions);
+                NativeExpressionCollection nativeExpressions = new NativeExpressionCollection(table, groups);
+                hs_platform_info_t platform = options.getPlatform() == null ? null : options.getPlatform().toNative();
                 hs_compile_error_t errorT = new hs_compile_error_t();
                 PointerPointer<NativeDatabase> database = new PointerPointer<>(1);
                 PointerPointer<hs_compile_error_t> error = new PointerPointer<>(errorT)
         ) {
 
-            int hsError = hs_compile_multi(
-                    nativeExpressions.getExpressionsBytes(),
-                    nativeExpressions.getNativeFlags(),
-                    nativeExpressions.getNativeIds(),
-                    nativeExpressions.getSize(),
-                    HS_MODE_BLOCK,
-                    null,
-                    database,
-                    error);
+            int hsError;
+            if (table.isLiteral()) {
+                hsError = hs_compile_lit_multi(
+                        nativeExpressions.getExpressionsBytes(),
+                        nativeExpressions.getNativeFlags(),
+                        nativeExpressions.getNativeIds(),
+                        nativeExpressions.getLengths(),
+                        nativeExpressions.getSize(),
+                        HS_MODE_BLOCK,
+                        platform,
+                        database,
+                        error);
+            } else {
+                hsError = hs_compile_ext_multi(
+                        nativeExpressions.getExpressionsBytes(),
+                        nativeExpressions.getNativeFlags(),
+                        nativeExpressions.getNativeIds(),
+                        nativeExpressions.getExtendedParameterPointers(),
+                        nativeExpressions.getSize(),
+                        HS_MODE_BLOCK,
+                        platform,
+                        database,
+                        error);
+            }
 
-            handleErrors(hsError, error.get(hs_compile_error_t.class), expressions);
+            handleErrors(hsError, error.get(hs_compile_error_t.class), table, expressions, nativeExpressions);
 
-            return new Database(database.get(NativeDatabase.class), expressions);
+            NativeDatabase nativeDatabase = database.get(NativeDatabase.class);
+            NativeMemoryStats.recordCompiledDatabase(nativeDatabase);
+            // The width of literals is their length, no analysis needed
+            boolean analyze = minWidth < 0 && (options.isAnalyzeMinWidth() || table.isLiteral());
+            int width = analyze ? computeMinWidth(table, groups) : minWidth;
+            return new Database(nativeDatabase, table, index, groups, width, expressions, payloads, tags, options);
         }
     }
 
@@ -121,6 +513,59 @@ public class Database implements Closeable {
         return database;
     }
 
+    /**
+     * @return true if any expression has been compiled with {@link ExpressionFlag#UTF8} or {@link ExpressionFlag#UCP}
+     */
+    boolean isUtf8() {
+        return utf8;
+    }
+
+    private static boolean isUtf8(ExpressionTable table) {
+        for (int i = 0; i < table.size(); i++) {
+            if ((table.getFlagBits(i) & (HS_FLAG_UTF8 | HS_FLAG_UCP)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id expression id
+     * @return position of the expression, or -1 if there is no expression with that id
+     */
+    int getPosition(int id) {
+        return index.indexOf(id);
+    }
+
+    /**
+     * @param position position of the expression
+     * @return id the expression is reported with
+     */
+    int getId(int position) {
+        if (table != null) {
+            return table.hasIds() ? table.getId(position) : position;
+        }
+
+        Integer id = expressions[position].getId();
+        return id == null ? position : id;
+    }
+
+    Object getScratchKey() {
+        return scratchKey;
+    }
+
+    boolean isClosed() {
+        return database == null;
+    }
+
+    /**
+     * @param handler handler to receive matches for all expression ids
+     * @return handler to receive the matches reported by hyperscan for this database
+     */
+    RawMatchEventHandler fanOut(RawMatchEventHandler handler) {
+        return groups == null ? handler : groups.fanOut(handler);
+    }
+
 
     /**
      * Get the database size in bytes
@@ -138,8 +583,73 @@ public class Database implements Closeable {
         }
     }
 
-    Expression getExpression(int id) {
-        return expressions.get(id);
+    /**
+     * Get the expression with the given id. For expressions without ids, the id is the position in the list
+     * the database was compiled with.
+     * With {@link ExpressionStorage#COMPACT} storage every call creates a new Expression instance.
+     *
+     * @param id expression id
+     * @return the expression or null if there is no expression with this id
+     */
+    public Expression getExpression(int id) {
+        int position = index.indexOf(id);
+        return position < 0 ? null : expressionAt(position);
+    }
+
+    /**
+     * Get the payload attached to an expression via {@link #compile(List, List)}
+     *
+     * @param id expression id
+     * @return the payload, or null if there is no expression with this id or no payloads are attached
+     */
+    public Object getPayload(int id) {
+        int position = index.indexOf(id);
+        return position < 0 || payloads == null ? null : payloads[position];
+    }
+
+    /**
+     * Get the tag attached to an expression via {@link #compile(List, long[])}
+     *
+     * @param id expression id
+     * @return the tag, or 0 if there is no expression with this id or no tags are attached
+     */
+    public long getTag(int id) {
+        int position = index.indexOf(id);
+        return position < 0 || tags == null ? 0 : tags[position];
+    }
+
+    /**
+     * Get the minimum length of a match of any expression of the database. Inputs shorter than this
+     * can't match at all. Unless already known, every expression is analyzed on the first call,
+     * see {@link DatabaseOptions#isAnalyzeMinWidth()}.
+     *
+     * @return minimum width of a match in bytes
+     */
+    public int getMinWidth() {
+        int width = minWidth;
+        if (width < 0) {
+            if (database == null) {
+                throw new IllegalStateException("Database has already been deallocated");
+            }
+            ExpressionTable source = table != null ? table : ExpressionTable.of(Arrays.asList(expressions), false, groups != null);
+            width = computeMinWidth(source, groups);
+            minWidth = width;
+        }
+        return width;
+    }
+
+    /**
+     * @return the minimum width of a match in bytes if it is known without analyzing the expressions, otherwise 0
+     */
+    int getKnownMinWidth() {
+        return Math.max(minWidth, 0);
+    }
+
+    /**
+     * @return number of expressions in the database
+     */
+    public int getExpressionCount() {
+        return expressionCount;
     }
 
     @Override
@@ -148,11 +658,60 @@ public class Database implements Closeable {
             database.close();
             database = null;
         }
+
+        Database variant = existenceVariant;
+        if (variant != null && variant != this) {
+            variant.close();
+        }
+    }
+
+    /**
+     * Get the database to use for existence checks. If enabled with {@link DatabaseOptions#isExistenceVariant()},
+     * this is a variant compiled with {@link ExpressionFlag#SINGLEMATCH} added to every expression
+     * except logical combinations, built on first use. Otherwise, or if the variant can't be compiled, this database.
+     *
+     * @return database to use for existence checks
+     */
+    Database getExistenceVariant() {
+        if (!options.isExistenceVariant()) {
+            return this;
+        }
+
+        Database variant = existenceVariant;
+        if (variant == null) {
+            synchronized (this) {
+                variant = existenceVariant;
+                if (variant == null) {
+                    variant = compileExistenceVariant();
+                    existenceVariant = variant;
+                }
+            }
+        }
+        return variant;
+    }
+
+    private Database compileExistenceVariant() {
+        if (database == null) {
+            throw new IllegalStateException("Database has already been deallocated");
+        }
+
+        ExpressionTable source = table != null ? table : ExpressionTable.of(Arrays.asList(expressions), false, groups != null);
+        DatabaseOptions variantOptions = options.toBuilder()
+                .existenceVariant(false)
+                .expressionStorage(ExpressionStorage.COMPACT)
+                .build();
+
+        try {
+            return compile(source.withSingleMatch(), null, null, null, minWidth, variantOptions);
+        } catch (CompileErrorException e) {
+            // Not every expression supports single match mode, fall back to the full database
+            return this;
+        }
     }
 
     /**
      * Saves the expressions and the compiled database to an OutputStream.
-     * Expression contexts are not saved.
+     * Payloads and tags are not saved.
      * The OutputStream is not closed.
      *
      * @param out stream to write to
@@ -166,7 +725,12 @@ public class Database implements Closeable {
      * Saves the expressions and the compiled database to (possibly) distinct OutputStreams.
      * All of the expressions are saved to expressionsOut before any of the database is saved to databaseOut so it's safe
      * to use the same backing OutputStream for both parameters.
-     * Expression contexts are not saved.
+     * <p>
+     * The expressions are preceded by a header recording the format version and the hyperscan version, platform
+     * features and mode the database was compiled for. Both the expressions and the database are followed by a CRC32
+     * checksum, so {@link #load(InputStream, InputStream)} can reject incompatible or corrupt payloads
+     * before handing them to hyperscan.
+     * Payloads and tags are not saved.
      * Neither of the OutputStream is closed.
      *
      * @param expressionsOut stream to write expressions to
@@ -174,27 +738,23 @@ public class Database implements Closeable {
      * @throws IOException If an I/O error occurs while writing to either stream
      */
     public void save(OutputStream expressionsOut, OutputStream databaseOut) throws IOException {
-        DataOutputStream expressionsDataOut = new DataOutputStream(expressionsOut);
-        // How many expressions will be present. We need this to know when to stop reading.
-        expressionsDataOut.writeInt(expressionCount);
-        for (Expression expression : expressions.values()) {
-            if (expression == null) {
-                continue;
-            }
-
-            // Expression id
-            expressionsDataOut.writeInt(expression.getId() == null ? -1 : expression.getId());
-            // Expression pattern
-            expressionsDataOut.writeUTF(expression.getExpression());
-            // Flag count
-            EnumSet<ExpressionFlag> flags = expression.getFlags();
-            expressionsDataOut.writeInt(flags.size());
-            for (ExpressionFlag flag : flags) {
-                // Bitmask for each flag
-                expressionsDataOut.writeInt(flag.getBits());
-            }
+        if (database == null) {
+            throw new IllegalStateException("Database has already been deallocated");
         }
-        expressionsDataOut.flush();
+
+        DataOutputStream header = new DataOutputStream(expressionsOut);
+        header.writeInt(FORMAT_MAGIC);
+        header.writeInt(FORMAT_VERSION);
+
+        // Everything after the magic and version is covered by the checksum.
+        // Neither CheckedOutputStream nor DataOutputStream buffer, so the streams can be intermixed.
+        CheckedOutputStream checkedExpressionsOut = new CheckedOutputStream(expressionsOut, new CRC32());
+        DataOutputStream expressionsDataOut = new DataOutputStream(checkedExpressionsOut);
+        expressionsDataOut.writeUTF(getDatabaseInfo());
+        expressionsDataOut.writeInt(minWidth);
+        (table != null ? table : ExpressionTable.of(Arrays.asList(expressions), false, groups != null)).write(expressionsDataOut);
+        header.writeInt((int) checkedExpressionsOut.getChecksum().getValue());
+        header.flush();
 
         // Serialize the database into a contiguous native memory block
         try (BytePointer bytePointer = new BytePointer(1); SizeTPointer size = new SizeTPointer(1)) {
@@ -210,11 +770,14 @@ public class Database implements Closeable {
             // We could just load all the native memory onto the heap but that would double our memory usage.
             // Instead we copy small blocks at a time
             ByteBuffer buffer = bytePointer.capacity(length).asBuffer();
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
 
             DataOutputStream databaseDataOut = new DataOutputStream(databaseOut);
             databaseDataOut.writeInt(length);
             // Neither DataOutputStream nor WritableByteChannel buffer so we can intermix usage.
             Channels.newChannel(databaseDataOut).write(buffer);
+            databaseDataOut.writeInt((int) checksum.getValue());
             databaseDataOut.flush();
         }
     }
@@ -222,31 +785,123 @@ public class Database implements Closeable {
     /**
      * Loads the database saved via {@link #save(OutputStream)}.
      * The saved payload contains platform-specific formatting so it should be loaded on a compatible platform.
-     * All Expression contexts will be null.
+     * The loaded database has no payloads or tags attached.
      *
      * @param in stream to read from
      * @return loaded Database
-     * @throws IOException If an I/O error occurs while reading from the stream
+     * @throws IOException If an I/O error occurs while reading from the stream or the payload is corrupt
      */
     public static Database load(InputStream in) throws IOException {
         return load(in, in);
     }
 
+    /**
+     * Loads the database saved via {@link #save(OutputStream)}.
+     * The saved payload contains platform-specific formatting so it should be loaded on a compatible platform.
+     * The loaded database has no payloads or tags attached.
+     *
+     * @param in      stream to read from
+     * @param options Options for the database
+     * @return loaded Database
+     * @throws IOException If an I/O error occurs while reading from the stream or the payload is corrupt
+     */
+    public static Database load(InputStream in, DatabaseOptions options) throws IOException {
+        return load(in, in, options);
+    }
+
 
     /**
      * Loads the database saved via {@link #save(OutputStream, OutputStream)}.
      * The saved payload contains platform-specific formatting so it should be loaded on a compatible platform.
+     * The header and checksums are verified before the database is deserialized, so payloads written by an
+     * incompatible hyperscan version or mode fail with a {@link HyperscanException} and corrupt payloads
+     * fail with an {@link IOException}. Payloads written by earlier releases without a header can still be loaded.
      *
      * @param expressionsIn stream to read expressions from
      * @param databaseIn    stream to read database from
      * @return loaded Database
-     * @throws IOException If an I/O error occurs while reading from either stream
+     * @throws IOException If an I/O error occurs while reading from either stream or the payload is corrupt
      */
     public static Database load(InputStream expressionsIn, InputStream databaseIn) throws IOException {
+        return load(expressionsIn, databaseIn, DatabaseOptions.DEFAULT);
+    }
+
+    /**
+     * Loads the database saved via {@link #save(OutputStream, OutputStream)}.
+     * With {@link ExpressionStorage#COMPACT} storage, the expressions are read in bulk and no Expression instances
+     * are created while loading.
+     *
+     * @param expressionsIn stream to read expressions from
+     * @param databaseIn    stream to read database from
+     * @param options       Options for the database
+     * @return loaded Database
+     * @throws IOException If an I/O error occurs while reading from either stream or the payload is corrupt
+     * @see #load(InputStream, InputStream)
+     */
+    public static Database load(InputStream expressionsIn, InputStream databaseIn, @NonNull DatabaseOptions options) throws IOException {
         // DataInputStream doesn't buffer so it will only read as much as we ask for.
         // This makes it safe to use even if expressionsIn and databaseIn are the same streams.
-        DataInputStream expressionsDataIn = new DataInputStream(expressionsIn);
-        int expressionCount = expressionsDataIn.readInt();
+        DataInputStream header = new DataInputStream(expressionsIn);
+        int magic = header.readInt();
+
+        if (magic != FORMAT_MAGIC) {
+            // Earlier releases started with the expression count instead
+            return loadLegacy(magic, header, new DataInputStream(databaseIn), options);
+        }
+
+        int version = header.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported database format version " + version);
+        }
+
+        CheckedInputStream checkedExpressionsIn = new CheckedInputStream(expressionsIn, new CRC32());
+        DataInputStream expressionsDataIn = new DataInputStream(checkedExpressionsIn);
+        String databaseInfo = expressionsDataIn.readUTF();
+        verifyDatabaseInfo(databaseInfo);
+        int minWidth = expressionsDataIn.readInt();
+        ExpressionTable table = ExpressionTable.read(expressionsDataIn, options.getExpressionStorage() == ExpressionStorage.COMPACT_OFF_HEAP);
+        verifyChecksum(header.readInt(), checkedExpressionsIn.getChecksum().getValue(), "expressions");
+        IdIndex index = IdIndex.of(table);
+
+        DataInputStream databaseDataIn = new DataInputStream(databaseIn);
+        int length = databaseDataIn.readInt();
+        if (length <= 0) {
+            throw new IOException("Invalid serialized database length " + length);
+        }
+
+        List<ByteBuffer> chunks = SectionReader.read(databaseDataIn, length, "Serialized database");
+        try (BytePointer bytePointer = new BytePointer(length)) {
+            ByteBuffer buffer = bytePointer.capacity(length).asBuffer();
+            SectionReader.copy(chunks, buffer);
+            ((Buffer) buffer).flip();
+
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer);
+            verifyChecksum(databaseDataIn.readInt(), checksum.getValue(), "database");
+
+            try (BytePointer serializedInfo = new BytePointer()) {
+                int hsError = hs_serialized_database_info(bytePointer, length, serializedInfo);
+                if (hsError != 0) {
+                    throw HyperscanException.hsErrorToException(hsError);
+                }
+                String info = serializedInfo.getString();
+                Pointer.free(serializedInfo);
+                if (!info.equals(databaseInfo)) {
+                    throw new IOException("Serialized database does not match its header: " + info);
+                }
+            }
+
+            NativeDatabase database = new NativeDatabase();
+            int hsError = hs_deserialize_database(bytePointer, length, database);
+            if (hsError != 0) {
+                throw HyperscanException.hsErrorToException(hsError);
+            }
+
+            return new Database(database, table, index, ExpressionGroups.of(table, index), minWidth, null, null, null, options);
+        }
+    }
+
+    private static Database loadLegacy(int expressionCount, DataInputStream expressionsDataIn, DataInputStream databaseDataIn, DatabaseOptions options) throws IOException {
         List<Expression> expressions = new ArrayList<>(expressionCount);
 
         // Setup a lookup map for expression flags
@@ -266,13 +921,14 @@ public class Database implements Closeable {
             expressions.add(new Expression(pattern, flags, id == -1 ? null : id));
         }
 
-        DataInputStream databaseDataIn = new DataInputStream(databaseIn);
         int length = databaseDataIn.readInt();
-        byte[] bytes = new byte[(int) length];
+        if (length <= 0) {
+            throw new IOException("Invalid serialized database length " + length);
+        }
 
+        List<ByteBuffer> chunks = SectionReader.read(databaseDataIn, length, "Serialized database");
         BytePointer bytePointer = new BytePointer(length);
-        databaseDataIn.readFully(bytes);
-        bytePointer.put(bytes);
+        SectionReader.copy(chunks, bytePointer.capacity(length).asBuffer());
 
         NativeDatabase database = new NativeDatabase();
 
@@ -281,7 +937,63 @@ public class Database implements Closeable {
             throw HyperscanException.hsErrorToException(hsError);
         }
 
-        return new Database(database, expressions);
+        ExpressionTable table = ExpressionTable.of(expressions, options.getExpressionStorage() == ExpressionStorage.COMPACT_OFF_HEAP, false);
+        int minWidth = options.isAnalyzeMinWidth() ? computeMinWidth(table, null) : -1;
+        return new Database(database, table, IdIndex.of(table), null, minWidth, expressions, null, null, options);
+    }
+
+    private String getDatabaseInfo() {
+        try (BytePointer info = new BytePointer()) {
+            int hsError = hs_database_info(database, info);
+            if (hsError != 0) {
+                throw HyperscanException.hsErrorToException(hsError);
+            }
+            String result = info.getString();
+            Pointer.free(info);
+            return result;
+        }
+    }
+
+    /**
+     * Checks the header written by {@link #save(OutputStream, OutputStream)} against the loaded hyperscan library,
+     * so incompatible payloads are rejected before anything is handed to hyperscan.
+     * The info has the form {@code Version: 5.4.11 Features: AVX2 Mode: BLOCK}.
+     */
+    private static void verifyDatabaseInfo(String databaseInfo) throws IOException {
+        String[] tokens = databaseInfo.split(" ");
+        int versionIndex = Arrays.asList(tokens).indexOf("Version:");
+        int modeIndex = Arrays.asList(tokens).indexOf("Mode:");
+
+        if (versionIndex < 0 || versionIndex + 1 >= tokens.length || modeIndex < 0 || modeIndex + 1 >= tokens.length) {
+            throw new IOException("Malformed database header: " + databaseInfo);
+        }
+
+        String libraryVersion = hs_version().getString().split(" ")[0];
+        if (!tokens[versionIndex + 1].equals(libraryVersion)) {
+            throw HyperscanException.hsErrorToException(HS_DB_VERSION_ERROR);
+        }
+
+        if (!tokens[modeIndex + 1].equals("BLOCK")) {
+            throw HyperscanException.hsErrorToException(HS_DB_MODE_ERROR);
+        }
+    }
+
+    private static void verifyChecksum(int expected, long actual, String section) throws IOException {
+        if (expected != (int) actual) {
+            throw new IOException("Checksum mismatch in saved " + section + ", the payload is corrupt");
+        }
+    }
+
+    private static Expression[] toExpressions(ExpressionTable table) {
+        Expression[] expressions = new Expression[table.size()];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = table.getExpression(i);
+        }
+        return expressions;
+    }
+
+    private Expression expressionAt(int position) {
+        return expressions != null ? expressions[position] : table.getExpression(position);
     }
 
     @Override
@@ -289,13 +1001,23 @@ public class Database implements Closeable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Database database = (Database) o;
-        return expressionCount == database.expressionCount && expressions.equals(database.expressions);
+        if (expressionCount != database.expressionCount) return false;
+
+        // Independent of the order of the expressions
+        for (int i = 0; i < expressionCount; i++) {
+            Expression expression = expressionAt(i);
+            Integer id = expression.getId();
+            if (!expression.equals(database.getExpression(id == null ? i : id))) return false;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
         int result = Objects.hash(expressionCount);
-        result = 31 * result + expressions.hashCode();
+        for (int i = 0; i < expressionCount; i++) {
+            result += expressionAt(i).hashCode();
+        }
         return result;
     }
 }
@@ -0,0 +1,59 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Options for compiling and loading a {@link Database}. Create instances using {@link #builder()}.
+ */
+@Getter
+@Builder(toBuilder = true)
+@EqualsAndHashCode
+@ToString
+public class DatabaseOptions {
+    /**
+     * Options used when none are specified
+     */
+    public static final DatabaseOptions DEFAULT = DatabaseOptions.builder().build();
+
+    /**
+     * How the expression metadata is kept on the Java side, {@link ExpressionStorage#OBJECTS} by default
+     */
+    @NonNull
+    @Builder.Default
+    private final ExpressionStorage expressionStorage = ExpressionStorage.OBJECTS;
+
+    /**
+     * Compile expressions with identical pattern and flags only once and report their matches for every id,
+     * true by default. Not applied to databases containing {@link ExpressionFlag#COMBINATION} expressions.
+     */
+    @Builder.Default
+    private final boolean deduplicateExpressions = true;
+
+    /**
+     * Platform to compile databases for, the current host if null (default)
+     */
+    private final Platform platform;
+
+    /**
+     * Compile a variant of the database with {@link ExpressionFlag#SINGLEMATCH} added to every expression on the
+     * first call of {@link Scanner#hasMatch(Database, java.nio.ByteBuffer)} and use it for all existence checks,
+     * false by default. Single match mode allows hyperscan to drop the state of expressions that already matched.
+     * Requires compiling the expressions a second time and keeps both databases in memory.
+     */
+    @Builder.Default
+    private final boolean existenceVariant = false;
+
+    /**
+     * Analyze every expression with {@code hs_expression_info} at compile time to find the minimum width of a match,
+     * false by default. Scans then return immediately for shorter inputs. Roughly doubles compile time for large
+     * expression sets. Without it, the minimum width is known only for databases compiled by
+     * {@link Database#compileLenient(java.util.List)} or literals, loaded from a payload saved with a known width,
+     * or after {@link Database#getMinWidth()} has been called.
+     */
+    @Builder.Default
+    private final boolean analyzeMinWidth = false;
+}
@@ -1,9 +1,15 @@
 package com.gliwka.hyperscan.wrapper;
 
 import com.gliwka.hyperscan.jni.hs_compile_error_t;
+import com.gliwka.hyperscan.jni.hs_expr_ext_t;
 import com.gliwka.hyperscan.jni.hs_expr_info_t;
 import lombok.*;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.EnumSet;
 
 import static com.gliwka.hyperscan.jni.hyperscan.*;
@@ -18,17 +24,28 @@ public class Expression {
     @Getter private final EnumSet<ExpressionFlag> flags;
     @Getter private final Integer id;
 
+    /**
+     * Extended parameters, or null if there are none
+     */
+    @Getter private final ExtendedParameters extendedParameters;
+
     /**
      * Represents the validation results for a expression
      */
     public static class ValidationResult {
         @Getter private String errorMessage;
         @Getter private final boolean isValid;
+        @Getter private ExpressionInfo info;
 
         ValidationResult(boolean isValid) {
             this.isValid = isValid;
         }
 
+        ValidationResult(ExpressionInfo info) {
+            this.isValid = true;
+            this.info = info;
+        }
+
         ValidationResult(String errorMessage, boolean isValid) {
             this.errorMessage = errorMessage;
             this.isValid = isValid;
@@ -83,12 +100,26 @@ public class Expression {
      * @throws IllegalArgumentException if id is negative
      */
     public Expression(@NonNull String expression, @NonNull EnumSet<ExpressionFlag> flags, Integer id) {
+        this(expression, flags, id, null);
+    }
+
+    /**
+     * Creates an expression with the specified flags, identifier and extended parameters.
+     *
+     * @param expression Regular expression pattern
+     * @param flags Set of expression flags that modify the behavior of the pattern
+     * @param id Expression identifier used to identify matches
+     * @param extendedParameters Extended parameters restricting where and how the expression may match, may be null
+     * @throws IllegalArgumentException if id is negative
+     */
+    public Expression(@NonNull String expression, @NonNull EnumSet<ExpressionFlag> flags, Integer id, ExtendedParameters extendedParameters) {
         if (id != null && id < 0)
             throw new IllegalArgumentException("id must be >=0: " + id);
 
         this.expression = expression;
         this.flags = flags;
         this.id = id;
+        this.extendedParameters = extendedParameters == null || extendedParameters.isEmpty() ? null : extendedParameters;
     }
 
     /**
@@ -105,22 +136,69 @@ public class Expression {
 
     /**
      * Validates if the expression is a valid regular expression according to Hyperscan's requirements.
+     * Extended parameters are validated as well, e.g. whether approximate matching is supported for the pattern.
      * 
-     * @return ValidationResult object containing validation status and error message if invalid
+     * @return ValidationResult object containing validation status and error message if invalid,
+     *         or the properties of the expression if valid
      */
     public ValidationResult validate() {
-        try(hs_expr_info_t info = new hs_expr_info_t(); hs_compile_error_t error = new hs_compile_error_t()) {
-            int hsResult = hs_expression_info(this.expression, getFlagBits(), info, error);
+        // hyperscan expects a NUL terminated string
+        byte[] encoded = expression.getBytes(StandardCharsets.UTF_8);
+        return validate(Arrays.copyOf(encoded, encoded.length + 1), getFlagBits(), extendedParameters);
+    }
 
-            if(hsResult != 0) {
-                return new ValidationResult(error.message().getString(), false);
+    /**
+     * Validates an encoded pattern without an Expression instance
+     *
+     * @param pattern            NUL terminated UTF-8 pattern
+     * @param flagBits           flag bits to pass to hyperscan
+     * @param extendedParameters extended parameters, may be null
+     * @return ValidationResult object containing validation status and error message if invalid,
+     *         or the properties of the expression if valid
+     */
+    static ValidationResult validate(byte[] pattern, int flagBits, ExtendedParameters extendedParameters) {
+        try(BytePointer nativePattern = new BytePointer(pattern);
+            hs_expr_ext_t ext = extendedParameters == null ? null : extendedParameters.writeTo(new hs_expr_ext_t());
+            PointerPointer<hs_expr_info_t> info = new PointerPointer<>(1);
+            PointerPointer<hs_compile_error_t> error = new PointerPointer<>(1)) {
+            int hsResult = ext == null
+                    ? hs_expression_info(nativePattern, flagBits, info, error)
+                    : hs_expression_ext_info(nativePattern, flagBits, ext, info, error);
 
+            if(hsResult != 0) {
+                hs_compile_error_t compileError = error.get(hs_compile_error_t.class);
+                String message = compileError.message().getString();
+                hs_free_compile_error(compileError);
+                return new ValidationResult(message, false);
             }
             else {
-                return new ValidationResult(true);
+                hs_expr_info_t expressionInfo = info.get(hs_expr_info_t.class);
+                ExpressionInfo result = new ExpressionInfo(
+                        expressionInfo.min_width(),
+                        expressionInfo.max_width() == -1 ? ExpressionInfo.UNBOUNDED : expressionInfo.max_width(),
+                        expressionInfo.unordered_matches() != 0,
+                        expressionInfo.matches_at_eod() != 0,
+                        expressionInfo.matches_only_at_eod() != 0);
+                // allocated by hyperscan's misc allocator, which defaults to malloc
+                Pointer.free(expressionInfo);
+                return new ValidationResult(result);
             }
+        }
+    }
 
+    /**
+     * Analyzes the expression, e.g. to find out the minimum and maximum width of its matches.
+     * Not supported for {@link ExpressionFlag#COMBINATION} expressions.
+     *
+     * @return properties of the expression
+     * @throws CompileErrorException if the expression is invalid
+     */
+    public ExpressionInfo analyze() throws CompileErrorException {
+        ValidationResult result = validate();
+        if (!result.isValid()) {
+            throw new CompileErrorException(result.getErrorMessage(), this);
         }
+        return result.getInfo();
     }
 
     /**
@@ -0,0 +1,146 @@
+package com.gliwka.hyperscan.wrapper;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Groups expressions with identical pattern, flags and extended parameters, so each group is compiled only once.
+ * Hyperscan reports matches of a group with the id of its first expression, the canonical one.
+ * The ids of all members are kept in CSR form: the members of the group whose canonical expression
+ * is at position {@code p} are {@code memberIds[memberOffsets[p]]} to {@code memberIds[memberOffsets[p + 1] - 1]}.
+ * Positions of non canonical expressions have an empty range.
+ */
+final class ExpressionGroups {
+    private final IdIndex index;
+    private final boolean[] canonical;
+    private final int canonicalCount;
+    private final int[] memberOffsets;
+    private final int[] memberIds;
+
+    private ExpressionGroups(IdIndex index, boolean[] canonical, int canonicalCount, int[] memberOffsets, int[] memberIds) {
+        this.index = index;
+        this.canonical = canonical;
+        this.canonicalCount = canonicalCount;
+        this.memberOffsets = memberOffsets;
+        this.memberIds = memberIds;
+    }
+
+    /**
+     * Groups the expressions of a deduplicated table. The grouping only depends on the table content,
+     * so a loaded table is grouped exactly like it was at compile time.
+     *
+     * @param table expressions
+     * @param index index of the expression ids of the table
+     * @return groups, or null if the table isn't deduplicated or has no duplicates
+     */
+    static ExpressionGroups of(ExpressionTable table, IdIndex index) {
+        if (!table.isDeduplicated()) {
+            return null;
+        }
+
+        int count = table.size();
+        ByteBuffer patterns = table.getPatterns();
+        Map<Key, Integer> firstPositions = new HashMap<>(count * 2);
+        int[] canonicalPositions = new int[count];
+        int canonicalCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            ByteBuffer pattern = patterns.duplicate();
+            ((Buffer) pattern).limit(table.getPatternOffset(i + 1)).position(table.getPatternOffset(i));
+
+            Key key = new Key(pattern.slice(), table.getFlagBits(i), table.getExtendedParameterBytes(i));
+            Integer first = firstPositions.putIfAbsent(key, i);
+            canonicalPositions[i] = first == null ? i : first;
+            if (first == null) {
+                canonicalCount++;
+            }
+        }
+
+        if (canonicalCount == count) {
+            return null;
+        }
+
+        // Counting sort of the positions by their canonical position
+        int[] memberOffsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            memberOffsets[canonicalPositions[i] + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            memberOffsets[i + 1] += memberOffsets[i];
+        }
+
+        int[] next = new int[count];
+        System.arraycopy(memberOffsets, 0, next, 0, count);
+        int[] memberIds = new int[count];
+        boolean[] canonical = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            canonical[i] = canonicalPositions[i] == i;
+            memberIds[next[canonicalPositions[i]]++] = table.getId(i);
+        }
+
+        return new ExpressionGroups(index, canonical, canonicalCount, memberOffsets, memberIds);
+    }
+
+    /**
+     * @param position position of the expression in the table
+     * @return true if the expression has to be compiled
+     */
+    boolean isCanonical(int position) {
+        return canonical[position];
+    }
+
+    /**
+     * @return number of expressions to compile
+     */
+    int getCanonicalCount() {
+        return canonicalCount;
+    }
+
+    /**
+     * Wraps a handler, so a match of a canonical expression is reported for every member of its group.
+     * Scanning stops as soon as the handler returns false for any member.
+     *
+     * @param handler handler to receive matches for all expression ids
+     * @return handler to receive matches reported by hyperscan
+     */
+    RawMatchEventHandler fanOut(RawMatchEventHandler handler) {
+        return (expressionId, fromByteIdx, toByteIdx, flags) -> {
+            int position = index.indexOf(expressionId);
+            for (int member = memberOffsets[position]; member < memberOffsets[position + 1]; member++) {
+                if (!handler.onMatch(memberIds[member], fromByteIdx, toByteIdx, flags)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static final class Key {
+        private final ByteBuffer pattern;
+        private final int flags;
+        private final ByteBuffer extendedParameters;
+
+        Key(ByteBuffer pattern, int flags, ByteBuffer extendedParameters) {
+            this.pattern = pattern;
+            this.flags = flags;
+            this.extendedParameters = extendedParameters;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return flags == other.flags && pattern.equals(other.pattern) && Objects.equals(extendedParameters, other.extendedParameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * pattern.hashCode() + flags) + Objects.hashCode(extendedParameters);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Properties of an expression as determined by hyperscan's expression analysis
+ *
+ * @see Expression#analyze()
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class ExpressionInfo {
+    /**
+     * Value of {@link #getMaxWidth()} for expressions without an upper bound on the match width
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * The minimum length in bytes of a match for the expression
+     */
+    private final int minWidth;
+
+    /**
+     * The maximum length in bytes of a match for the expression, {@link #UNBOUNDED} if there is no maximum
+     */
+    private final int maxWidth;
+
+    /**
+     * Whether the expression can produce matches that are not returned in order
+     */
+    private final boolean unorderedMatches;
+
+    /**
+     * Whether the expression can produce matches at end of data
+     */
+    private final boolean matchesAtEod;
+
+    /**
+     * Whether the expression can only produce matches at end of data
+     */
+    private final boolean matchesOnlyAtEod;
+
+    ExpressionInfo(int minWidth, int maxWidth, boolean unorderedMatches, boolean matchesAtEod, boolean matchesOnlyAtEod) {
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.unorderedMatches = unorderedMatches;
+        this.matchesAtEod = matchesAtEod;
+        this.matchesOnlyAtEod = matchesOnlyAtEod;
+    }
+}
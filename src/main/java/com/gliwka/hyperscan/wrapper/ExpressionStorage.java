@@ -0,0 +1,24 @@
+package com.gliwka.hyperscan.wrapper;
+
+/**
+ * Determines how a {@link Database} keeps the metadata of its expressions on the Java side
+ */
+public enum ExpressionStorage {
+    /**
+     * Keep the Expression instances. Matches report the very instances the database was compiled with.
+     */
+    OBJECTS,
+
+    /**
+     * Keep the patterns and flags in a compact UTF-8 table on the heap.
+     * Expression instances are only created when a match is reported or {@link Database#getExpression(int)} is called,
+     * so they are no longer identical to the instances the database was compiled with, only equal.
+     */
+    COMPACT,
+
+    /**
+     * Same as {@link #COMPACT}, but the table is allocated in direct memory outside of the Java heap.
+     * This removes the expression metadata from garbage collection entirely.
+     */
+    COMPACT_OFF_HEAP
+}
@@ -0,0 +1,470 @@
+package com.gliwka.hyperscan.wrapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * Compact binary table holding the id, flags, extended parameters and UTF-8 encoded pattern of every expression in a database.
+ * All entries live in a single buffer laid out as {@code [ids][flags][extended parameters][pattern offsets][pattern bytes]},
+ * where ids and extended parameters are only present if any expression has them,
+ * so the table can be written and read with a handful of bulk operations regardless of the expression count.
+ * Tables of literals hold the raw literal bytes instead of UTF-8 encoded patterns.
+ * The buffer is either a heap buffer or a direct buffer outside of the Java heap.
+ */
+final class ExpressionTable {
+    private static final int HAS_IDS = 1;
+    private static final int DEDUPLICATED = 2;
+    private static final int EXTENDED = 4;
+    private static final int LITERAL = 8;
+
+    /**
+     * Extended parameters are stored as
+     * {@code [hs_expr_ext_t flags][min offset][max offset][min length][edit distance (int)][hamming distance (int)]}
+     */
+    private static final int EXTENDED_BYTES = 4 * Long.BYTES + 2 * Integer.BYTES;
+
+    /**
+     * {@link ExpressionFlag#NO_FLAG} has no bits of its own. It is recorded with a bit hyperscan never uses,
+     * so an expression created with NO_FLAG is restored with exactly the same flag set.
+     */
+    private static final int NO_FLAG_MARKER = 1 << 31;
+
+    private final int count;
+    private final boolean hasIds;
+    private final boolean deduplicated;
+    private final boolean extended;
+    private final boolean literal;
+    private final ByteBuffer body;
+
+    private final int flagsOffset;
+    private final int extendedOffset;
+    private final int patternOffsetsOffset;
+    private final int patternsOffset;
+
+    private ExpressionTable(int count, boolean hasIds, boolean deduplicated, boolean extended, boolean literal, ByteBuffer body) {
+        this.count = count;
+        this.hasIds = hasIds;
+        this.deduplicated = deduplicated;
+        this.extended = extended;
+        this.literal = literal;
+        this.body = body;
+
+        this.flagsOffset = hasIds ? count * Integer.BYTES : 0;
+        this.extendedOffset = flagsOffset + count * Integer.BYTES;
+        this.patternOffsetsOffset = extendedOffset + (extended ? count * EXTENDED_BYTES : 0);
+        this.patternsOffset = patternOffsetsOffset + (count + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Encodes expressions into a table
+     *
+     * @param expressions expressions to encode
+     * @param direct      true to place the table outside of the Java heap
+     * @param deduplicated true if identical expressions are compiled only once, see {@link ExpressionGroups}
+     * @return table
+     * @throws IllegalStateException if expressions with and without ids are mixed
+     */
+    static ExpressionTable of(List<Expression> expressions, boolean direct, boolean deduplicated) {
+        int count = expressions.size();
+        boolean hasIds = hasIds(expressions.stream().map(Expression::getId).collect(Collectors.toList()));
+        boolean extended = expressions.stream().anyMatch(expression -> expression.getExtendedParameters() != null);
+
+        byte[][] patterns = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            patterns[i] = expressions.get(i).getExpression().getBytes(StandardCharsets.UTF_8);
+        }
+
+        ExpressionTable table = allocate(count, hasIds, deduplicated, extended, false, patterns, direct);
+        for (int i = 0; i < count; i++) {
+            Expression expression = expressions.get(i);
+            table.putEntry(i, expression.getId(), expression.getFlags());
+            if (extended) {
+                table.putExtendedParameters(i, expression.getExtendedParameters());
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Encodes literals into a table. The literal bytes are stored as is instead of a pattern.
+     *
+     * @param literals     literals to encode
+     * @param direct       true to place the table outside of the Java heap
+     * @param deduplicated true if identical literals are compiled only once, see {@link ExpressionGroups}
+     * @return table
+     * @throws IllegalStateException if literals with and without ids are mixed
+     */
+    static ExpressionTable ofLiterals(List<Literal> literals, boolean direct, boolean deduplicated) {
+        int count = literals.size();
+        boolean hasIds = hasIds(literals.stream().map(Literal::getId).collect(Collectors.toList()));
+
+        byte[][] patterns = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            patterns[i] = literals.get(i).getBytes();
+        }
+
+        ExpressionTable table = allocate(count, hasIds, deduplicated, false, true, patterns, direct);
+        for (int i = 0; i < count; i++) {
+            table.putEntry(i, literals.get(i).getId(), literals.get(i).getFlags());
+        }
+
+        return table;
+    }
+
+    private static boolean hasIds(List<Integer> ids) {
+        boolean withoutId = ids.stream().anyMatch(Objects::isNull);
+        boolean withId = ids.stream().anyMatch(Objects::nonNull);
+
+        if (withId && withoutId) {
+            throw new IllegalStateException("You can't mix expressions with and without id's in a single database");
+        }
+
+        return withId;
+    }
+
+    /**
+     * Allocates a table and fills in the patterns, all other entries are left empty
+     */
+    private static ExpressionTable allocate(int count, boolean hasIds, boolean deduplicated, boolean extended, boolean literal,
+                                            byte[][] patterns, boolean direct) {
+        long patternBytes = 0;
+        for (byte[] pattern : patterns) {
+            patternBytes += pattern.length;
+        }
+
+        ByteBuffer body = allocate(bodySize(count, hasIds, extended, patternBytes), direct);
+        ExpressionTable table = new ExpressionTable(count, hasIds, deduplicated, extended, literal, body);
+
+        int patternPosition = 0;
+        for (int i = 0; i < count; i++) {
+            body.putInt(table.patternOffsetsOffset + i * Integer.BYTES, patternPosition);
+            patternPosition += patterns[i].length;
+        }
+        body.putInt(table.patternOffsetsOffset + count * Integer.BYTES, patternPosition);
+
+        ((Buffer) body).position(table.patternsOffset);
+        for (byte[] pattern : patterns) {
+            body.put(pattern);
+        }
+        ((Buffer) body).clear();
+
+        return table;
+    }
+
+    private void putEntry(int index, Integer id, EnumSet<ExpressionFlag> flags) {
+        if (hasIds) {
+            body.putInt(index * Integer.BYTES, id);
+        }
+        body.putInt(flagsOffset + index * Integer.BYTES, encodeFlags(flags));
+    }
+
+    /**
+     * Reads a table written by {@link #write(DataOutputStream)}. The entries are read with a single bulk read.
+     *
+     * @param in     input to read from
+     * @param direct true to place the table outside of the Java heap
+     * @return table
+     * @throws IOException If an I/O error occurs or the table header is malformed
+     */
+    static ExpressionTable read(DataInputStream in, boolean direct) throws IOException {
+        int features = in.readInt();
+        int count = in.readInt();
+        int patternBytes = in.readInt();
+
+        if ((features & ~(HAS_IDS | DEDUPLICATED | EXTENDED | LITERAL)) != 0 || count < 0 || patternBytes < 0) {
+            throw new IOException("Malformed expression table header");
+        }
+
+        boolean hasIds = (features & HAS_IDS) != 0;
+        boolean extended = (features & EXTENDED) != 0;
+        long size = bodySize(count, hasIds, extended, patternBytes);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Malformed expression table header");
+        }
+
+        List<ByteBuffer> chunks = SectionReader.read(in, size, "Expression table");
+        ByteBuffer body;
+        if (!direct && chunks.size() == 1) {
+            body = chunks.get(0);
+        } else {
+            body = allocate(size, direct);
+            SectionReader.copy(chunks, body);
+            ((Buffer) body).clear();
+        }
+
+        return new ExpressionTable(count, hasIds, (features & DEDUPLICATED) != 0, extended, (features & LITERAL) != 0, body);
+    }
+
+    /**
+     * Creates a copy with {@link ExpressionFlag#SINGLEMATCH} added to every expression except logical combinations.
+     * {@link ExpressionFlag#SOM_LEFTMOST} is removed, as hyperscan doesn't support it in single match mode.
+     *
+     * @return copy of the table
+     */
+    ExpressionTable withSingleMatch() {
+        ByteBuffer copy = allocate(body.capacity(), body.isDirect());
+        copy.put(body.duplicate());
+        ((Buffer) copy).clear();
+
+        for (int i = 0; i < count; i++) {
+            int offset = flagsOffset + i * Integer.BYTES;
+            int flags = copy.getInt(offset);
+            if ((flags & HS_FLAG_COMBINATION) == 0) {
+                copy.putInt(offset, (flags | HS_FLAG_SINGLEMATCH) & ~HS_FLAG_SOM_LEFTMOST);
+            }
+        }
+
+        return new ExpressionTable(count, hasIds, deduplicated, extended, literal, copy);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt((hasIds ? HAS_IDS : 0) | (deduplicated ? DEDUPLICATED : 0) | (extended ? EXTENDED : 0) | (literal ? LITERAL : 0));
+        out.writeInt(count);
+        out.writeInt(body.capacity() - patternsOffset);
+        if (body.hasArray()) {
+            out.write(body.array(), body.arrayOffset(), body.capacity());
+        } else {
+            // Neither DataOutputStream nor WritableByteChannel buffer so we can intermix usage.
+            Channels.newChannel(out).write(body.duplicate());
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean hasIds() {
+        return hasIds;
+    }
+
+    boolean isDeduplicated() {
+        return deduplicated;
+    }
+
+    /**
+     * @return true if the table holds literals to be compiled with hs_compile_lit_multi
+     */
+    boolean isLiteral() {
+        return literal;
+    }
+
+    /**
+     * @return true if any expression has extended parameters
+     */
+    boolean isExtended() {
+        return extended;
+    }
+
+    /**
+     * @param index position of the expression in the table
+     * @return the expression id, or the position if the expressions have no ids
+     */
+    int getId(int index) {
+        return hasIds ? body.getInt(index * Integer.BYTES) : index;
+    }
+
+    /**
+     * @param index position of the expression in the table
+     * @return the flag bits to pass to hyperscan
+     */
+    int getFlagBits(int index) {
+        return body.getInt(flagsOffset + index * Integer.BYTES) & ~NO_FLAG_MARKER;
+    }
+
+    EnumSet<ExpressionFlag> getFlags(int index) {
+        return decodeFlags(body.getInt(flagsOffset + index * Integer.BYTES));
+    }
+
+    /**
+     * @param index position of the expression in the table
+     * @return the hs_expr_ext_t flags of the expression, 0 if it has no extended parameters
+     */
+    long getExtendedFlags(int index) {
+        return extended ? body.getLong(extendedOffset + index * EXTENDED_BYTES) : 0;
+    }
+
+    private long getMinOffset(int index) {
+        return body.getLong(extendedOffset + index * EXTENDED_BYTES + Long.BYTES);
+    }
+
+    private long getMaxOffset(int index) {
+        return body.getLong(extendedOffset + index * EXTENDED_BYTES + 2 * Long.BYTES);
+    }
+
+    private long getMinLength(int index) {
+        return body.getLong(extendedOffset + index * EXTENDED_BYTES + 3 * Long.BYTES);
+    }
+
+    private int getEditDistance(int index) {
+        return body.getInt(extendedOffset + index * EXTENDED_BYTES + 4 * Long.BYTES);
+    }
+
+    private int getHammingDistance(int index) {
+        return body.getInt(extendedOffset + index * EXTENDED_BYTES + 4 * Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * @param index position of the expression in the table
+     * @return read-only view on the encoded extended parameters of the expression, or null if the table has none
+     */
+    ByteBuffer getExtendedParameterBytes(int index) {
+        if (!extended) {
+            return null;
+        }
+        ByteBuffer view = body.asReadOnlyBuffer();
+        ((Buffer) view).limit(extendedOffset + (index + 1) * EXTENDED_BYTES).position(extendedOffset + index * EXTENDED_BYTES);
+        return view.slice();
+    }
+
+    ExtendedParameters getExtendedParameters(int index) {
+        long flags = getExtendedFlags(index);
+        if (flags == 0) {
+            return null;
+        }
+
+        return ExtendedParameters.builder()
+                .minOffset((flags & HS_EXT_FLAG_MIN_OFFSET) != 0 ? getMinOffset(index) : null)
+                .maxOffset((flags & HS_EXT_FLAG_MAX_OFFSET) != 0 ? getMaxOffset(index) : null)
+                .minLength((flags & HS_EXT_FLAG_MIN_LENGTH) != 0 ? getMinLength(index) : null)
+                .editDistance((flags & HS_EXT_FLAG_EDIT_DISTANCE) != 0 ? getEditDistance(index) : null)
+                .hammingDistance((flags & HS_EXT_FLAG_HAMMING_DISTANCE) != 0 ? getHammingDistance(index) : null)
+                .build();
+    }
+
+    private void putExtendedParameters(int index, ExtendedParameters parameters) {
+        if (parameters == null) {
+            return;
+        }
+
+        int offset = extendedOffset + index * EXTENDED_BYTES;
+        body.putLong(offset, parameters.getFlags());
+        if (parameters.getMinOffset() != null) {
+            body.putLong(offset + Long.BYTES, parameters.getMinOffset());
+        }
+        if (parameters.getMaxOffset() != null) {
+            body.putLong(offset + 2 * Long.BYTES, parameters.getMaxOffset());
+        }
+        if (parameters.getMinLength() != null) {
+            body.putLong(offset + 3 * Long.BYTES, parameters.getMinLength());
+        }
+        if (parameters.getEditDistance() != null) {
+            body.putInt(offset + 4 * Long.BYTES, parameters.getEditDistance());
+        }
+        if (parameters.getHammingDistance() != null) {
+            body.putInt(offset + 4 * Long.BYTES + Integer.BYTES, parameters.getHammingDistance());
+        }
+    }
+
+    /**
+     * @param index position of the expression in the table
+     * @return the pattern, for literals a regular expression matching exactly the literal bytes
+     */
+    String getPattern(int index) {
+        int from = getPatternOffset(index);
+        int length = getPatternOffset(index + 1) - from;
+
+        byte[] pattern;
+        int offset;
+        if (body.hasArray()) {
+            pattern = body.array();
+            offset = body.arrayOffset() + patternsOffset + from;
+        } else {
+            pattern = new byte[length];
+            offset = 0;
+            ByteBuffer view = body.duplicate();
+            ((Buffer) view).position(patternsOffset + from);
+            view.get(pattern);
+        }
+
+        return literal ? escape(pattern, offset, length) : new String(pattern, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static String escape(byte[] literal, int offset, int length) {
+        StringBuilder pattern = new StringBuilder(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+            int b = literal[i] & 0xFF;
+            if ((b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+                pattern.append((char) b);
+            } else {
+                pattern.append("\\x").append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        return pattern.toString();
+    }
+
+    /**
+     * Creates a new Expression instance for an entry
+     *
+     * @param index position of the expression in the table
+     * @return expression equal to the one the table was created with
+     */
+    Expression getExpression(int index) {
+        return new Expression(getPattern(index), getFlags(index), hasIds ? getId(index) : null, getExtendedParameters(index));
+    }
+
+    /**
+     * @return total length of all UTF-8 encoded patterns
+     */
+    int getPatternBytes() {
+        return getPatternOffset(count);
+    }
+
+    /**
+     * @param index position of the expression in the table, or the expression count for the end of the last pattern
+     * @return offset of the encoded pattern within {@link #getPatterns()}
+     */
+    int getPatternOffset(int index) {
+        return body.getInt(patternOffsetsOffset + index * Integer.BYTES);
+    }
+
+    /**
+     * @return read-only view on the UTF-8 encoded patterns or literal bytes, stored back to back without separators
+     */
+    ByteBuffer getPatterns() {
+        ByteBuffer view = body.asReadOnlyBuffer();
+        ((Buffer) view).position(patternsOffset);
+        return view.slice();
+    }
+
+    private static ByteBuffer allocate(long size, boolean direct) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Expressions are too large to be stored in a single table");
+        }
+        return direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+    }
+
+    private static long bodySize(int count, boolean hasIds, boolean extended, long patternBytes) {
+        long ints = (hasIds ? 2L : 1L) * count + count + 1;
+        return ints * Integer.BYTES + (extended ? (long) count * EXTENDED_BYTES : 0) + patternBytes;
+    }
+
+    private static int encodeFlags(EnumSet<ExpressionFlag> flags) {
+        int bits = 0;
+        for (ExpressionFlag flag : flags) {
+            bits |= flag == ExpressionFlag.NO_FLAG ? NO_FLAG_MARKER : flag.getBits();
+        }
+        return bits;
+    }
+
+    private static EnumSet<ExpressionFlag> decodeFlags(int bits) {
+        EnumSet<ExpressionFlag> flags = EnumSet.noneOf(ExpressionFlag.class);
+        for (ExpressionFlag flag : ExpressionFlag.values()) {
+            if (flag == ExpressionFlag.NO_FLAG ? (bits & NO_FLAG_MARKER) != 0 : (bits & flag.getBits()) != 0) {
+                flags.add(flag);
+            }
+        }
+        return flags;
+    }
+}
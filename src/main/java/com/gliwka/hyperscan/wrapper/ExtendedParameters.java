@@ -0,0 +1,112 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.jni.hs_expr_ext_t;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * Extended parameters of an {@link Expression}, restricting where and how it may match.
+ * Parameters which are not set (null) are not applied. Create instances using {@link #builder()}.
+ * Limiting the search window with {@link #getMaxOffset()} allows hyperscan to stop tracking an expression
+ * once the offset has been passed. An edit or Hamming distance turns the expression into an approximate match,
+ * see the hyperscan documentation on approximate matching for the supported constructs.
+ */
+@Getter
+@Builder
+@EqualsAndHashCode
+@ToString
+public class ExtendedParameters {
+    /**
+     * The minimum end offset in the data stream at which this expression should match successfully
+     */
+    private final Long minOffset;
+
+    /**
+     * The maximum end offset in the data stream at which this expression should match successfully
+     */
+    private final Long maxOffset;
+
+    /**
+     * The minimum match length (from start to end) required to successfully match this expression
+     */
+    private final Long minLength;
+
+    /**
+     * Allow matches within the given Levenshtein distance of the expression
+     */
+    private final Integer editDistance;
+
+    /**
+     * Allow matches within the given Hamming distance of the expression
+     */
+    private final Integer hammingDistance;
+
+    private ExtendedParameters(Long minOffset, Long maxOffset, Long minLength, Integer editDistance, Integer hammingDistance) {
+        requireNotNegative("minOffset", minOffset);
+        requireNotNegative("maxOffset", maxOffset);
+        requireNotNegative("minLength", minLength);
+        requireNotNegative("editDistance", editDistance);
+        requireNotNegative("hammingDistance", hammingDistance);
+
+        this.minOffset = minOffset;
+        this.maxOffset = maxOffset;
+        this.minLength = minLength;
+        this.editDistance = editDistance;
+        this.hammingDistance = hammingDistance;
+    }
+
+    /**
+     * @return true if no parameter is set
+     */
+    boolean isEmpty() {
+        return minOffset == null && maxOffset == null && minLength == null && editDistance == null && hammingDistance == null;
+    }
+
+    /**
+     * @return HS_EXT_FLAG_* bits of the parameters which are set
+     */
+    long getFlags() {
+        long flags = 0;
+        if (minOffset != null) {
+            flags |= HS_EXT_FLAG_MIN_OFFSET;
+        }
+        if (maxOffset != null) {
+            flags |= HS_EXT_FLAG_MAX_OFFSET;
+        }
+        if (minLength != null) {
+            flags |= HS_EXT_FLAG_MIN_LENGTH;
+        }
+        if (editDistance != null) {
+            flags |= HS_EXT_FLAG_EDIT_DISTANCE;
+        }
+        if (hammingDistance != null) {
+            flags |= HS_EXT_FLAG_HAMMING_DISTANCE;
+        }
+        return flags;
+    }
+
+    /**
+     * Fills a native hs_expr_ext_t with the parameters
+     *
+     * @param ext struct to fill
+     * @return the struct
+     */
+    hs_expr_ext_t writeTo(hs_expr_ext_t ext) {
+        return ext.flags(getFlags())
+                .min_offset(minOffset == null ? 0 : minOffset)
+                .max_offset(maxOffset == null ? 0 : maxOffset)
+                .min_length(minLength == null ? 0 : minLength)
+                .edit_distance(editDistance == null ? 0 : editDistance)
+                .hamming_distance(hammingDistance == null ? 0 : hammingDistance);
+    }
+
+    private static void requireNotNegative(String name, Number value) {
+        if (value != null && value.longValue() < 0) {
+            throw new IllegalArgumentException(name + " must be >=0: " + value);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.gliwka.hyperscan.wrapper;
+
+/**
+ * Passes on only the first match of every expression of interest during a single scan,
+ * terminating the scan once all of them have been seen.
+ */
+final class FirstMatchFilter {
+    private final Database db;
+
+    /**
+     * Bits by expression position of the expressions of interest not seen yet
+     */
+    private final long[] pending;
+    private int remaining;
+
+    /**
+     * @param db            database being scanned
+     * @param expressionIds ids of the expressions of interest, all expressions if empty
+     * @throws IllegalArgumentException if the database has no expression with one of the ids
+     */
+    FirstMatchFilter(Database db, int[] expressionIds) {
+        this.db = db;
+
+        int count = db.getExpressionCount();
+        pending = new long[(count + 63) >>> 6];
+
+        if (expressionIds.length == 0) {
+            for (int position = 0; position < count; position++) {
+                pending[position >>> 6] |= 1L << position;
+            }
+            remaining = count;
+            return;
+        }
+
+        for (int id : expressionIds) {
+            int position = db.getPosition(id);
+            if (position < 0) {
+                throw new IllegalArgumentException("No expression with id " + id);
+            }
+            if ((pending[position >>> 6] & (1L << position)) == 0) {
+                pending[position >>> 6] |= 1L << position;
+                remaining++;
+            }
+        }
+    }
+
+    /**
+     * @param handler handler receiving the first match of every expression of interest
+     * @return handler to receive all matches of the scan
+     */
+    RawMatchEventHandler wrap(RawMatchEventHandler handler) {
+        return (expressionId, fromByteIdx, toByteIdx, flags) -> {
+            int position = db.getPosition(expressionId);
+            long mask = 1L << position;
+            int word = position >>> 6;
+
+            if ((pending[word] & mask) == 0) {
+                // Already seen or not of interest
+                return true;
+            }
+
+            pending[word] &= ~mask;
+            remaining--;
+            return handler.onMatch(expressionId, fromByteIdx, toByteIdx, flags) && remaining > 0;
+        };
+    }
+}
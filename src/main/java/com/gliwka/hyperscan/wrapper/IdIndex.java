@@ -0,0 +1,107 @@
+package com.gliwka.hyperscan.wrapper;
+
+import java.util.Arrays;
+
+/**
+ * Maps expression ids to the position of the expression within a database without boxing.
+ * Compact id ranges use a plain lookup array, sparse ids an open addressing hash table.
+ */
+final class IdIndex {
+    private static final int EMPTY = -1;
+
+    private final int count;
+    private final int[] dense;
+    private final int[] keys;
+    private final int[] values;
+    private final int mask;
+
+    private IdIndex(int count, int[] dense, int[] keys, int[] values) {
+        this.count = count;
+        this.dense = dense;
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys == null ? 0 : keys.length - 1;
+    }
+
+    /**
+     * Creates the index for the expressions of a table
+     *
+     * @param table expressions
+     * @return index
+     * @throws IllegalStateException if an id is used more than once
+     */
+    static IdIndex of(ExpressionTable table) {
+        int count = table.size();
+
+        if (!table.hasIds()) {
+            // The id is the position
+            return new IdIndex(count, null, null, null);
+        }
+
+        int maxId = 0;
+        for (int i = 0; i < count; i++) {
+            maxId = Math.max(maxId, table.getId(i));
+        }
+
+        if (maxId < 2L * count + 1024) {
+            int[] dense = new int[maxId + 1];
+            Arrays.fill(dense, EMPTY);
+            for (int i = 0; i < count; i++) {
+                int id = table.getId(i);
+                if (dense[id] != EMPTY) {
+                    throw duplicateId();
+                }
+                dense[id] = i;
+            }
+            return new IdIndex(count, dense, null, null);
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        int[] keys = new int[capacity];
+        int[] values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        IdIndex index = new IdIndex(count, null, keys, values);
+
+        for (int i = 0; i < count; i++) {
+            int id = table.getId(i);
+            int slot = index.slot(id);
+            if (keys[slot] == id) {
+                throw duplicateId();
+            }
+            keys[slot] = id;
+            values[slot] = i;
+        }
+
+        return index;
+    }
+
+    /**
+     * @param id expression id
+     * @return position of the expression, or -1 if there is no expression with that id
+     */
+    int indexOf(int id) {
+        if (dense != null) {
+            return id >= 0 && id < dense.length ? dense[id] : EMPTY;
+        }
+
+        if (keys != null) {
+            int slot = slot(id);
+            return keys[slot] == id ? values[slot] : EMPTY;
+        }
+
+        return id >= 0 && id < count ? id : EMPTY;
+    }
+
+    private int slot(int id) {
+        int hash = id * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static IllegalStateException duplicateId() {
+        return new IllegalStateException("Expression ID must be unique within a Database.");
+    }
+}
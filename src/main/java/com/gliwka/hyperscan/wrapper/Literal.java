@@ -0,0 +1,83 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+/**
+ * Literal to be compiled as a Database using {@link Database#compileLiterals(java.util.List)}.
+ * Literals are matched byte for byte without any regular expression parsing, so they may contain
+ * any bytes including NUL, except for a leading NUL which hyperscan rejects as an empty literal.
+ * Only {@link ExpressionFlag#CASELESS}, {@link ExpressionFlag#SINGLEMATCH} and
+ * {@link ExpressionFlag#SOM_LEFTMOST} are supported.
+ */
+@EqualsAndHashCode
+@ToString
+public class Literal {
+    @NonNull private final byte[] literal;
+    @Getter private final EnumSet<ExpressionFlag> flags;
+    @Getter private final Integer id;
+
+    /**
+     * Creates a UTF-8 encoded literal with the default NO_FLAG flag and no identifier.
+     *
+     * @param literal Literal string
+     */
+    public Literal(@NonNull String literal) {
+        this(literal, EnumSet.of(ExpressionFlag.NO_FLAG), null);
+    }
+
+    /**
+     * Creates a UTF-8 encoded literal with the default NO_FLAG flag and specified identifier.
+     *
+     * @param literal Literal string
+     * @param id Literal identifier used to identify matches
+     */
+    public Literal(@NonNull String literal, Integer id) {
+        this(literal, EnumSet.of(ExpressionFlag.NO_FLAG), id);
+    }
+
+    /**
+     * Creates a UTF-8 encoded literal with the specified flags and identifier.
+     *
+     * @param literal Literal string
+     * @param flags Set of flags that modify the behavior of the literal
+     * @param id Literal identifier used to identify matches
+     * @throws IllegalArgumentException if id is negative
+     */
+    public Literal(@NonNull String literal, @NonNull EnumSet<ExpressionFlag> flags, Integer id) {
+        this(literal.getBytes(StandardCharsets.UTF_8), flags, id);
+    }
+
+    /**
+     * Creates a binary literal with the specified flags and identifier.
+     *
+     * @param literal Bytes to match, copied
+     * @param flags Set of flags that modify the behavior of the literal
+     * @param id Literal identifier used to identify matches
+     * @throws IllegalArgumentException if id is negative
+     */
+    public Literal(@NonNull byte[] literal, @NonNull EnumSet<ExpressionFlag> flags, Integer id) {
+        if (id != null && id < 0)
+            throw new IllegalArgumentException("id must be >=0: " + id);
+
+        this.literal = literal.clone();
+        this.flags = flags;
+        this.id = id;
+    }
+
+    /**
+     * @return copy of the bytes to match
+     */
+    public byte[] getLiteral() {
+        return literal.clone();
+    }
+
+    /**
+     * Bytes without copy, must not be modified
+     */
+    byte[] getBytes() {
+        return literal;
+    }
+}
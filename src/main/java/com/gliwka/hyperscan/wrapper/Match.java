@@ -9,6 +9,11 @@ public class Match {
     private String matchedString;
     private Expression matchedExpression;
 
+    /**
+     * Scanned input the matched string is cut from on first access, null once done or if not retained
+     */
+    private String input;
+
     /**
      * Creates a new Match object with the specified positions, matched string, and expression.
      * 
@@ -25,10 +30,36 @@ public class Match {
     }
 
     /**
-     * Get the exact matched string
+     * Creates a match cutting the matched string from the input on first access
+     *
+     * @param start The starting character position (inclusive) of the match in the input string
+     * @param end The ending character position (inclusive) of the match in the input string
+     * @param expression The expression that matched the input
+     * @param input The scanned input, or null if it has not been retained
+     */
+    Match(long start, long end, Expression expression, String input) {
+        startPosition = start;
+        endPosition = end;
+        matchedExpression = expression;
+        this.input = input;
+    }
+
+    /**
+     * Get the exact matched string, created on first access
      * @return matched string if SOM flag is set, otherwise empty string
+     * @throws IllegalStateException if the SOM flag is set, but the scan did not retain the input
      */
     public String getMatchedString() {
+        if (matchedString == null) {
+            if (!matchedExpression.getFlags().contains(ExpressionFlag.SOM_LEFTMOST)) {
+                matchedString = "";
+            } else if (input == null) {
+                throw new IllegalStateException("The input has not been retained by the scan");
+            } else {
+                matchedString = input.substring((int) startPosition, (int) endPosition + 1);
+            }
+            input = null;
+        }
         return matchedString;
     }
 
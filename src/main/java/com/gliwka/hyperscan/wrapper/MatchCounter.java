@@ -0,0 +1,65 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Counts the matches of every expression of a database, filled by {@link Scanner#count(Database, String, MatchCounter)}
+ * without creating match objects. Counts accumulate over scans until {@link #reset()}, so one counter
+ * can be reused for any number of inputs. Not thread-safe.
+ */
+public class MatchCounter {
+    /**
+     * The database the counted expressions belong to
+     */
+    @Getter private final Database database;
+
+    /**
+     * Counts by expression position
+     */
+    private final int[] counts;
+    private long total;
+
+    /**
+     * @param database database whose expressions are counted
+     */
+    public MatchCounter(@NonNull Database database) {
+        this.database = database;
+        this.counts = new int[database.getExpressionCount()];
+    }
+
+    /**
+     * @param expressionId id of the expression
+     * @return count of matches reported for the expression
+     * @throws IllegalArgumentException if the database has no expression with this id
+     */
+    public int getCount(int expressionId) {
+        int position = database.getPosition(expressionId);
+        if (position < 0) {
+            throw new IllegalArgumentException("No expression with id " + expressionId);
+        }
+        return counts[position];
+    }
+
+    /**
+     * @return count of matches reported for all expressions
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets all counts to zero
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    void increment(int expressionId) {
+        counts[database.getPosition(expressionId)]++;
+        total++;
+    }
+}
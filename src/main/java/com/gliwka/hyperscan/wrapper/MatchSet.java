@@ -0,0 +1,96 @@
+package com.gliwka.hyperscan.wrapper;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Set of the expressions of a database that matched, filled by {@link Scanner#scanMatchSet(Database, String, MatchSet)}.
+ * Backed by a bitmap with one bit per expression, so sparse expression ids don't take any extra space.
+ * Expressions already in the set cost a single bit test per further match, and the scan terminates
+ * once every expression of the database has matched. Can be cleared and reused. Not thread-safe.
+ */
+public class MatchSet {
+    /**
+     * The database the expressions belong to
+     */
+    @Getter private final Database database;
+
+    /**
+     * Bits by expression position
+     */
+    private final long[] bits;
+    private int size;
+
+    /**
+     * @param database database whose expressions are collected
+     */
+    public MatchSet(@NonNull Database database) {
+        this.database = database;
+        this.bits = new long[(database.getExpressionCount() + 63) >>> 6];
+    }
+
+    /**
+     * @param expressionId id of the expression
+     * @return true if the expression has matched
+     */
+    public boolean contains(int expressionId) {
+        int position = database.getPosition(expressionId);
+        return position >= 0 && (bits[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * @return count of expressions that have matched
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no expression has matched
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return ids of the expressions that have matched, in the order the database has been compiled with
+     */
+    public int[] getIds() {
+        int[] ids = new int[size];
+        int i = 0;
+        for (int word = 0; word < bits.length; word++) {
+            long remaining = bits[word];
+            while (remaining != 0) {
+                ids[i++] = database.getId((word << 6) + Long.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Removes all expressions
+     */
+    public void clear() {
+        Arrays.fill(bits, 0);
+        size = 0;
+    }
+
+    /**
+     * @param expressionId id of the matching expression
+     * @return false once every expression of the database has matched
+     */
+    boolean add(int expressionId) {
+        int position = database.getPosition(expressionId);
+        long mask = 1L << position;
+        int word = position >>> 6;
+
+        if ((bits[word] & mask) == 0) {
+            bits[word] |= mask;
+            size++;
+        }
+        return size < database.getExpressionCount();
+    }
+}
@@ -1,19 +1,23 @@
 package com.gliwka.hyperscan.wrapper;
 
+import com.gliwka.hyperscan.jni.hs_expr_ext_t;
 import lombok.AccessLevel;
 import lombok.Getter;
 import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.SizeTPointer;
 
 import java.io.Closeable;
-import java.util.List;
-
-import static java.util.stream.Collectors.toList;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 class NativeExpressionCollection implements Closeable {
-    @Getter(AccessLevel.PACKAGE)
-    private final List<NativeExpression> nativeExpressions;
+    /**
+     * All patterns, each terminated by a NUL byte, in a single native allocation
+     */
+    private final BytePointer patterns;
 
     @Getter(AccessLevel.PACKAGE)
     private final PointerPointer<BytePointer> expressionsBytes;
@@ -24,53 +28,111 @@ class NativeExpressionCollection implements Closeable {
     @Getter(AccessLevel.PACKAGE)
     private final IntPointer nativeIds;
 
+    /**
+     * Extended parameters of all expressions in a single native allocation, or null if there are none
+     */
+    private final hs_expr_ext_t extendedParameters;
+
+    /**
+     * Pointers into {@link #extendedParameters}, null for expressions without extended parameters.
+     * Null if no expression has extended parameters.
+     */
     @Getter(AccessLevel.PACKAGE)
-    private final int size;
+    private final PointerPointer<hs_expr_ext_t> extendedParameterPointers;
 
-    NativeExpressionCollection(List<Expression> expressions) {
-        this.size = expressions.size();
+    /**
+     * Byte length of each pattern, needed for literals which may contain NUL bytes
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final SizeTPointer lengths;
 
-        boolean expressionWithoutId = expressions.stream().anyMatch(expression -> expression.getId() == null);
-        boolean expressionWithId = expressions.stream().anyMatch(expression -> expression.getId() != null);
+    @Getter(AccessLevel.PACKAGE)
+    private final int size;
 
-        if (expressionWithId && expressionWithoutId) {
-            throw new IllegalStateException("You can't mix expressions with and without id's in a single database");
-        }
+    /**
+     * Table position of each native expression
+     */
+    private final int[] positions;
 
-        this.nativeExpressions = expressions.stream().map(NativeExpression::new).collect(toList());
-        this.expressionsBytes = new PointerPointer<>(size);
+    /**
+     * @param table  expressions
+     * @param groups groups of identical expressions, only the canonical expression of each group is passed
+     *               to hyperscan. Null to pass all expressions.
+     */
+    NativeExpressionCollection(ExpressionTable table, ExpressionGroups groups) {
+        this.size = groups == null ? table.size() : groups.getCanonicalCount();
 
-        BytePointer[] bytePointers = nativeExpressions
-                .stream()
-                .map(NativeExpression::getExpressionBytes)
-                .toArray(BytePointer[]::new);
+        long patternsSize = Math.max(1, (long) table.getPatternBytes() + size);
+        this.patterns = new BytePointer(patternsSize);
+        this.expressionsBytes = new PointerPointer<>(Math.max(1, size));
 
-        this.expressionsBytes.put(bytePointers);
+        ByteBuffer encodedPatterns = table.getPatterns();
+        ByteBuffer nativePatterns = patterns.capacity(patternsSize).asByteBuffer();
 
         int[] flags = new int[size];
         int[] ids = new int[size];
+        long[] patternLengths = new long[size];
+        this.positions = new int[size];
+
+        if (table.isExtended()) {
+            this.extendedParameters = new hs_expr_ext_t(Math.max(1, size));
+            this.extendedParameterPointers = new PointerPointer<>(Math.max(1, size));
+        } else {
+            this.extendedParameters = null;
+            this.extendedParameterPointers = null;
+        }
 
         int i = 0;
-        for (Expression expression : expressions) {
-            flags[i] = expression.getFlagBits();
-            if (expressionWithId) {
-                ids[i] = expression.getId();
-            } else {
-                ids[i] = i;
+        for (int position = 0; position < table.size(); position++) {
+            if (groups != null && !groups.isCanonical(position)) {
+                continue;
+            }
+
+            expressionsBytes.put(i, patterns.getPointer(nativePatterns.position()));
+
+            // Patterns are stored back to back, so they can be copied in order
+            ((Buffer) encodedPatterns).limit(table.getPatternOffset(position + 1)).position(table.getPatternOffset(position));
+            nativePatterns.put(encodedPatterns);
+            nativePatterns.put((byte) 0);
+
+            flags[i] = table.getFlagBits(position);
+            ids[i] = table.getId(position);
+            patternLengths[i] = table.getPatternOffset(position + 1) - table.getPatternOffset(position);
+            positions[i] = position;
+
+            ExtendedParameters parameters = extendedParameters == null ? null : table.getExtendedParameters(position);
+            if (parameters != null) {
+                extendedParameterPointers.put(i, parameters.writeTo(extendedParameters.getPointer(i)));
+            } else if (extendedParameterPointers != null) {
+                // Native allocations aren't zeroed
+                extendedParameterPointers.put(i, (Pointer) null);
             }
             i++;
         }
 
         this.nativeFlags = new IntPointer(flags);
         this.nativeIds = new IntPointer(ids);
+        this.lengths = new SizeTPointer(Math.max(1, size)).put(patternLengths);
     }
 
+    /**
+     * @param nativeIndex index of an expression as reported by the hyperscan compiler
+     * @return position of the expression in the table
+     */
+    int getPosition(int nativeIndex) {
+        return positions[nativeIndex];
+    }
 
     @Override
     public void close() {
-        this.nativeExpressions.forEach(NativeExpression::close);
+        patterns.close();
         expressionsBytes.close();
         this.nativeFlags.close();
         this.nativeIds.close();
+        this.lengths.close();
+        if (extendedParameters != null) {
+            extendedParameters.close();
+            extendedParameterPointers.close();
+        }
     }
 }
@@ -0,0 +1,143 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.jni.hs_database_t;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.bytedeco.javacpp.SizeTPointer;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * Snapshot of the native memory hyperscan holds for databases, scratch spaces and streams.
+ * The memory lives outside of the Java heap and is not bounded by -Xmx or visible to heap monitoring.
+ * <p>
+ * Tracking is off by default. {@link #enableTracking()} installs process-wide allocator hooks
+ * ({@code hs_set_database_allocator}, {@code hs_set_scratch_allocator}, {@code hs_set_stream_allocator})
+ * which record every allocation before handing it on to the C library.
+ * Only memory allocated while tracking is enabled is counted, so enable it before compiling or loading databases.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class NativeMemoryStats {
+    private static TrackingAllocator databaseAllocator;
+    private static TrackingAllocator scratchAllocator;
+    private static TrackingAllocator streamAllocator;
+    private static volatile boolean trackingEnabled;
+
+    /**
+     * Bytes held by compiled and deserialized databases
+     */
+    private final long databaseBytes;
+
+    /**
+     * Bytes held by scratch spaces
+     */
+    private final long scratchBytes;
+
+    /**
+     * Bytes held by stream state
+     */
+    private final long streamBytes;
+
+    private NativeMemoryStats(long databaseBytes, long scratchBytes, long streamBytes) {
+        this.databaseBytes = databaseBytes;
+        this.scratchBytes = scratchBytes;
+        this.streamBytes = streamBytes;
+    }
+
+    /**
+     * @return bytes held by databases, scratch spaces and streams together
+     */
+    public long getTotalBytes() {
+        return databaseBytes + scratchBytes + streamBytes;
+    }
+
+    /**
+     * Routes hyperscan's database, scratch and stream allocations through tracking allocators.
+     * Blocks allocated before tracking was enabled are released as usual but not counted.
+     * Must not be called concurrently with compiling, loading or scanning.
+     */
+    public static synchronized void enableTracking() {
+        if (trackingEnabled) {
+            return;
+        }
+
+        if (databaseAllocator == null) {
+            databaseAllocator = new TrackingAllocator();
+            scratchAllocator = new TrackingAllocator();
+            streamAllocator = new TrackingAllocator();
+        }
+
+        check(hs_set_database_allocator(databaseAllocator.getAlloc(), databaseAllocator.getFree()));
+        check(hs_set_scratch_allocator(scratchAllocator.getAlloc(), scratchAllocator.getFree()));
+        check(hs_set_stream_allocator(streamAllocator.getAlloc(), streamAllocator.getFree()));
+        trackingEnabled = true;
+    }
+
+    /**
+     * Restores hyperscan's default allocators and resets all counters.
+     * Blocks allocated while tracking was enabled stay valid and are released as usual.
+     * Must not be called concurrently with compiling, loading or scanning.
+     */
+    public static synchronized void disableTracking() {
+        if (!trackingEnabled) {
+            return;
+        }
+
+        check(hs_set_database_allocator(null, null));
+        check(hs_set_scratch_allocator(null, null));
+        check(hs_set_stream_allocator(null, null));
+        trackingEnabled = false;
+
+        databaseAllocator.reset();
+        scratchAllocator.reset();
+        streamAllocator.reset();
+    }
+
+    /**
+     * @return true if allocations are currently being tracked
+     */
+    public static boolean isTrackingEnabled() {
+        return trackingEnabled;
+    }
+
+    /**
+     * Reads the current totals. All values are zero while tracking is disabled.
+     *
+     * @return snapshot of the native memory held by hyperscan
+     */
+    public static NativeMemoryStats current() {
+        if (!trackingEnabled) {
+            return new NativeMemoryStats(0, 0, 0);
+        }
+
+        return new NativeMemoryStats(databaseAllocator.getBytes(), scratchAllocator.getBytes(), streamAllocator.getBytes());
+    }
+
+    /**
+     * The compiler builds databases without going through the database allocator (see NativeMemoryStatsTest),
+     * but they are released through it. Records their size so they are accounted like deserialized databases.
+     * A block the allocator has already seen isn't counted again.
+     *
+     * @param database freshly compiled database
+     */
+    static void recordCompiledDatabase(hs_database_t database) {
+        if (!trackingEnabled) {
+            return;
+        }
+
+        try (SizeTPointer size = new SizeTPointer(1)) {
+            if (hs_database_size(database, size) == 0) {
+                databaseAllocator.record(database, size.get());
+            }
+        }
+    }
+
+    private static void check(int hsError) {
+        if (hsError != 0) {
+            throw HyperscanException.hsErrorToException(hsError);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.gliwka.hyperscan.wrapper;
+
+/**
+ * A functional interface for handling Hyperscan match events together with the payload
+ * attached to the matching expression at compile time.
+ *
+ * @param <T> Type of the payloads
+ * @see Database#compile(java.util.List, java.util.List)
+ * @see Scanner#scan(Database, String, PayloadMatchEventHandler)
+ * @see Scanner#scan(Database, byte[], PayloadMatchEventHandler)
+ */
+@FunctionalInterface
+public interface PayloadMatchEventHandler<T> {
+    /**
+     * Callback method invoked when a pattern matches.
+     *
+     * @param expressionId The id of the expression that matched.
+     * @param payload      The payload attached to the expression, may be null.
+     * @param from         The starting index (inclusive) of the match.
+     * @param to           The ending index of the match. Inclusive character index when scanning strings,
+     *                     exclusive byte offset when scanning bytes.
+     * @return {@code true} to continue scanning, {@code false} to stop scanning immediately.
+     */
+    boolean onMatch(int expressionId, T payload, long from, long to);
+}
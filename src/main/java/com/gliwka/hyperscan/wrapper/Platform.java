@@ -0,0 +1,95 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.jni.hs_platform_info_t;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.util.EnumSet;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * Target platform of a database, see {@link DatabaseOptions#getPlatform()}.
+ * Compiling for a platform other than the host allows building databases on one machine
+ * and shipping them to scanning nodes of a different CPU generation.
+ * A database can only be loaded on a host supporting all of its {@link CpuFeature}s.
+ */
+@EqualsAndHashCode
+@ToString
+public class Platform {
+    /**
+     * Generic platform without any optional CPU features, can be used on any supported host
+     */
+    public static final Platform GENERIC = new Platform(TuneFamily.GENERIC, EnumSet.noneOf(CpuFeature.class));
+
+    @Getter private final TuneFamily tuneFamily;
+    private final EnumSet<CpuFeature> cpuFeatures;
+
+    private Platform(TuneFamily tuneFamily, EnumSet<CpuFeature> cpuFeatures) {
+        this.tuneFamily = tuneFamily;
+        this.cpuFeatures = cpuFeatures;
+    }
+
+    /**
+     * Creates a platform
+     *
+     * @param tuneFamily  microarchitecture to tune for
+     * @param cpuFeatures CPU features the database may use
+     * @return platform
+     */
+    public static Platform of(@NonNull TuneFamily tuneFamily, @NonNull EnumSet<CpuFeature> cpuFeatures) {
+        return new Platform(tuneFamily, cpuFeatures.clone());
+    }
+
+    /**
+     * Queries the platform of the current host
+     *
+     * @return platform of the host
+     */
+    public static Platform host() {
+        try (hs_platform_info_t info = new hs_platform_info_t()) {
+            int hsError = hs_populate_platform(info);
+            if (hsError != 0) {
+                throw HyperscanException.hsErrorToException(hsError);
+            }
+
+            EnumSet<CpuFeature> features = EnumSet.noneOf(CpuFeature.class);
+            for (CpuFeature feature : CpuFeature.values()) {
+                if ((info.cpu_features() & feature.getBits()) != 0) {
+                    features.add(feature);
+                }
+            }
+            return new Platform(TuneFamily.of(info.tune()), features);
+        }
+    }
+
+    /**
+     * @return copy of the CPU features the database may use
+     */
+    public EnumSet<CpuFeature> getCpuFeatures() {
+        return cpuFeatures.clone();
+    }
+
+    /**
+     * @return true if the current host supports all CPU features of this platform
+     */
+    public boolean isSupportedByHost() {
+        return host().cpuFeatures.containsAll(cpuFeatures);
+    }
+
+    hs_platform_info_t toNative() {
+        long features = 0;
+        for (CpuFeature feature : cpuFeatures) {
+            features |= feature.getBits();
+        }
+
+        hs_platform_info_t info = new hs_platform_info_t();
+        info.tune(tuneFamily.getValue());
+        info.cpu_features(features);
+        info.reserved1(0);
+        info.reserved2(0);
+        return info;
+    }
+}
@@ -0,0 +1,93 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.wrapper.mapping.ByteCharLookup;
+import lombok.Getter;
+import lombok.NonNull;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * String encoded once into native memory, to be scanned against any number of databases with
+ * {@link Scanner#scan(Database, ScanInput)}. Byte offsets are mapped back to string indices lazily,
+ * only for reported matches. The native memory is released by {@link #close()}.
+ * <p>
+ * Not thread-safe, only one scan at a time can use an instance.
+ */
+public class ScanInput implements Closeable {
+    /**
+     * The string this input has been created from
+     */
+    @Getter private final String input;
+
+    /**
+     * True if every character has been passed as a single Latin-1 byte, see {@link #ofLatin1(String)}
+     */
+    @Getter private final boolean latin1;
+
+    private final ByteCharLookup mapping;
+    private final int length;
+    private BytePointer bytes;
+
+    private ScanInput(String input, byte[] encoded, ByteCharLookup mapping, boolean latin1) {
+        this.input = input;
+        this.latin1 = latin1;
+        this.mapping = mapping;
+        this.length = encoded.length;
+        this.bytes = new BytePointer(encoded);
+    }
+
+    /**
+     * Encodes a string to UTF-8
+     *
+     * @param input string to scan
+     * @return input to scan, must be closed after use
+     */
+    public static ScanInput of(@NonNull String input) {
+        byte[] encoded = Utf8Encoder.encode(input);
+        return new ScanInput(input, encoded, Utf8Encoder.map(input, encoded), false);
+    }
+
+    /**
+     * Passes every character of a Latin-1 string as a single byte, like {@link Scanner#scanLatin1(Database, String)}.
+     * Can only be scanned against databases without {@link ExpressionFlag#UTF8} and {@link ExpressionFlag#UCP} expressions.
+     * Characters outside of Latin-1 are replaced by '?'.
+     *
+     * @param input Latin-1 string to scan
+     * @return input to scan, must be closed after use
+     */
+    public static ScanInput ofLatin1(@NonNull String input) {
+        byte[] encoded = input.getBytes(StandardCharsets.ISO_8859_1);
+        return new ScanInput(input, encoded, ByteCharLookup.identity(encoded.length), true);
+    }
+
+    /**
+     * @return length of the encoded input in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    BytePointer getBytes() {
+        if (bytes == null) {
+            throw new IllegalStateException("Scan input has already been closed");
+        }
+        return bytes;
+    }
+
+    ByteCharLookup getMapping() {
+        return mapping;
+    }
+
+    /**
+     * Releases the native memory
+     */
+    @Override
+    public void close() {
+        if (bytes != null) {
+            bytes.close();
+            bytes = null;
+        }
+    }
+}
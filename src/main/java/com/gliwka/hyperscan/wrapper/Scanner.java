@@ -3,7 +3,7 @@ package com.gliwka.hyperscan.wrapper;
 import com.gliwka.hyperscan.jni.hs_database_t;
 import com.gliwka.hyperscan.jni.hs_scratch_t;
 import com.gliwka.hyperscan.jni.match_event_handler;
-import com.gliwka.hyperscan.wrapper.mapping.ByteCharMapping;
+import com.gliwka.hyperscan.wrapper.mapping.ByteCharLookup;
 import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacpp.SizeTPointer;
@@ -11,10 +11,15 @@ import org.bytedeco.javacpp.SizeTPointer;
 import java.io.Closeable;
 import java.io.IOException;
 
+import java.lang.ref.WeakReference;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static com.gliwka.hyperscan.jni.hyperscan.*;
 import static java.util.Collections.emptyList;
@@ -39,12 +44,29 @@ public class Scanner implements Closeable {
         }
     }
 
+    private static final int MAX_RETAINED_INPUT_BUFFER = 1 << 20;
+
     private NativeScratch scratch = new NativeScratch();
 
+    /**
+     * Direct buffer strings are encoded to for scanning, reused across scans. Null until first needed.
+     */
+    private ByteBuffer inputBuffer;
+
+    /**
+     * Databases the scratch space has been sized for, keyed by {@link Database#getScratchKey()}
+     */
+    private final Map<Object, WeakReference<Database>> scratchDatabases = new WeakHashMap<>();
+
+    /**
+     * Key of the database last used, skips the lookup in {@link #scratchDatabases} for repeated scans
+     */
+    private Object lastScratchKey;
+
     /**
      * Creates a new Scanner instance.
-     * Each scanner maintains its own scratch space which needs to be allocated
-     * with the {@link #allocScratch(Database)} method before scanning.
+     * Each scanner maintains its own scratch space, which grows automatically
+     * on first use with a database or upfront with {@link #allocScratch(Database)}.
      */
     public Scanner() {
         // Default constructor with initialized scratch space
@@ -83,8 +105,8 @@ public class Scanner implements Closeable {
     }
 
     /**
-     * Allocate a scratch space.  Must be called at least once with each
-     * database that will be used before scan is called.
+     * Allocate a scratch space. Scanning grows the scratch space automatically on first use with a database,
+     * this allows doing it upfront. Does nothing if the scratch space has already been sized for the database.
      *
      * @param db Database containing expressions to use for matching
      */
@@ -93,6 +115,45 @@ public class Scanner implements Closeable {
             throw new IllegalStateException("Scratch space has already been deallocated");
         }
 
+        Object key = db.getScratchKey();
+        if (key == lastScratchKey || scratchDatabases.containsKey(key)) {
+            lastScratchKey = key;
+            return;
+        }
+
+        growScratch(db);
+        scratchDatabases.put(key, new WeakReference<>(db));
+        lastScratchKey = key;
+    }
+
+    /**
+     * Reallocates the scratch space for the databases it has been used with that are still open.
+     * Frees the memory needed only by large databases that have been closed in the meantime.
+     */
+    public void shrinkScratch() {
+        if(scratch == null) {
+            throw new IllegalStateException("Scratch space has already been deallocated");
+        }
+
+        List<Database> open = new ArrayList<>();
+        for (WeakReference<Database> reference : scratchDatabases.values()) {
+            Database db = reference.get();
+            if (db != null && !db.isClosed()) {
+                open.add(db);
+            }
+        }
+
+        hs_free_scratch(scratch);
+        scratch = new NativeScratch();
+        scratchDatabases.clear();
+        lastScratchKey = null;
+
+        for (Database db : open) {
+            allocScratch(db);
+        }
+    }
+
+    private void growScratch(final Database db) {
         hs_database_t dbPointer = db.getDatabase();
         int hsError = hs_alloc_scratch(dbPointer, scratch);
         scratch.registerDeallocator();
@@ -119,21 +180,317 @@ public class Scanner implements Closeable {
      * @return List of Matches
      */
     public List<Match> scan(final Database db, final String input) {
+        return scan(db, input, true);
+    }
+
+    /**
+     * Scans a string for matches using a compiled expression database and returns a list of matches.
+     * The matched strings of {@link ExpressionFlag#SOM_LEFTMOST} expressions are cut from the input on first access,
+     * which requires the matches to keep a reference to the input.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db          Database containing expressions to use for matching.
+     * @param input       String to match against.
+     * @param retainInput false to not reference the input from the matches, {@link Match#getMatchedString()}
+     *                    is not available for SOM_LEFTMOST matches then
+     * @return List of Matches
+     */
+    public List<Match> scan(final Database db, final String input, final boolean retainInput) {
+        if (isShorterThanMinWidth(db, input)) {
+            return emptyList();
+        }
+
         final LinkedList<Match> matches = new LinkedList<>();
+        scan(db, input, matchCollector(retainInput ? input : null, matches));
+        return matches.isEmpty() ? emptyList() : matches;
+    }
 
-        scan(db, input, (expression, fromStringIndexLong, toStringIndexLong) -> {
-            String match = "";
-            if(expression.getFlags().contains(ExpressionFlag.SOM_LEFTMOST)) {
-                match = input.substring((int)  fromStringIndexLong, (int) toStringIndexLong + 1);
-            }
+    /**
+     * Scans a Latin-1 (ISO-8859-1) string, passing every character to hyperscan as a single byte.
+     * Skips UTF-8 encoding and offset mapping, the byte offsets are the string indices.
+     * Only databases without {@link ExpressionFlag#UTF8} and {@link ExpressionFlag#UCP} expressions interpret
+     * single byte input this way. Characters outside of Latin-1 are replaced by '?'.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db    Database without UTF8 or UCP expressions.
+     * @param input Latin-1 string to match against.
+     * @return List of Matches
+     * @throws IllegalArgumentException if the database contains UTF8 or UCP expressions
+     */
+    public List<Match> scanLatin1(final Database db, final String input) {
+        final LinkedList<Match> matches = new LinkedList<>();
+        scanLatin1(db, input, matchCollector(input, matches));
+        return matches.isEmpty() ? emptyList() : matches;
+    }
+
+    /**
+     * Scans a Latin-1 (ISO-8859-1) string, passing every character to hyperscan as a single byte,
+     * and reports matches to the provided event handler using string character indices.
+     * Only databases without {@link ExpressionFlag#UTF8} and {@link ExpressionFlag#UCP} expressions interpret
+     * single byte input this way. Characters outside of Latin-1 are replaced by '?'.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database without UTF8 or UCP expressions.
+     * @param input        Latin-1 string to match against.
+     * @param eventHandler Handler to receive match events with string indices.
+     * @throws IllegalArgumentException if the database contains UTF8 or UCP expressions
+     */
+    public void scanLatin1(final Database db, final String input, StringMatchEventHandler eventHandler) {
+        if (db.isUtf8()) {
+            throw new IllegalArgumentException("Database contains UTF8 or UCP expressions, use scan for UTF-8 input");
+        }
+
+        if (input.length() < db.getKnownMinWidth()) {
+            return;
+        }
+
+        scan(db, toInputBuffer(input.getBytes(StandardCharsets.ISO_8859_1)), (expressionId, fromByteIdx, toByteIdx, flags) ->
+                eventHandler.onMatch(db.getExpression(expressionId), fromByteIdx, toByteIdx > 0 ? toByteIdx - 1 : 0));
+    }
+
+    /**
+     * Scans an input encoded once for several databases and returns a list of matches.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db    Database containing expressions to use for matching.
+     * @param input Input to match against.
+     * @return List of Matches
+     * @throws IllegalArgumentException if a Latin-1 input is scanned against a database with UTF8 or UCP expressions
+     */
+    public List<Match> scan(final Database db, final ScanInput input) {
+        final LinkedList<Match> matches = new LinkedList<>();
+        scan(db, input, matchCollector(input.getInput(), matches));
+        return matches.isEmpty() ? emptyList() : matches;
+    }
+
+    /**
+     * Scans an input encoded once for several databases and reports matches to the provided
+     * event handler using string character indices.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database containing expressions to use for matching.
+     * @param input        Input to match against.
+     * @param eventHandler Handler to receive match events with string indices.
+     * @throws IllegalArgumentException if a Latin-1 input is scanned against a database with UTF8 or UCP expressions
+     */
+    public void scan(final Database db, final ScanInput input, StringMatchEventHandler eventHandler) {
+        checkEncoding(db, input);
+        scan(db, input.getBytes(), input.getLength(), toStringIndices(input.getMapping(), (expressionId, fromStringIndex, toStringIndex, flags) ->
+                eventHandler.onMatch(db.getExpression(expressionId), fromStringIndex, toStringIndex)));
+    }
+
+    /**
+     * Counts the matches of every expression in a string without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db      Database containing expressions to use for matching.
+     * @param input   String to match against.
+     * @param counter Counter created for the database, the counts are added to.
+     * @throws IllegalArgumentException if the counter has been created for another database
+     */
+    public void count(final Database db, final String input, final MatchCounter counter) {
+        checkCounter(db, counter);
+        if (isShorterThanMinWidth(db, input)) {
+            return;
+        }
 
-            matches.add(new Match((int)fromStringIndexLong, (int)toStringIndexLong, match, expression));
+        // Offsets aren't needed, so no mapping either
+        scan(db, toInputBuffer(Utf8Encoder.encode(input)), countingHandler(counter));
+    }
+
+    /**
+     * Counts the matches of every expression in raw bytes without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db      Database containing expressions to use for matching.
+     * @param input   Bytes to match against.
+     * @param counter Counter created for the database, the counts are added to.
+     * @throws IllegalArgumentException if the counter has been created for another database
+     */
+    public void count(final Database db, final byte[] input, final MatchCounter counter) {
+        checkCounter(db, counter);
+        scan(db, ByteBuffer.wrap(input), countingHandler(counter));
+    }
+
+    /**
+     * Counts the matches of every expression in an input encoded once for several databases without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db      Database containing expressions to use for matching.
+     * @param input   Input to match against.
+     * @param counter Counter created for the database, the counts are added to.
+     * @throws IllegalArgumentException if the counter has been created for another database or
+     *                                  a Latin-1 input is scanned against a database with UTF8 or UCP expressions
+     */
+    public void count(final Database db, final ScanInput input, final MatchCounter counter) {
+        checkCounter(db, counter);
+        checkEncoding(db, input);
+        scan(db, input.getBytes(), input.getLength(), countingHandler(counter));
+    }
+
+    private static void checkCounter(final Database db, final MatchCounter counter) {
+        if (counter.getDatabase() != db) {
+            throw new IllegalArgumentException("Counter has been created for another database");
+        }
+    }
+
+    private static RawMatchEventHandler countingHandler(final MatchCounter counter) {
+        return (expressionId, fromByteIdx, toByteIdx, flags) -> {
+            counter.increment(expressionId);
             return true;
-        });
+        };
+    }
+
+    /**
+     * Adds the expressions matching a string to a match set, without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db       Database containing expressions to use for matching.
+     * @param input    String to match against.
+     * @param matchSet Match set created for the database, the matching expressions are added to.
+     * @throws IllegalArgumentException if the match set has been created for another database
+     */
+    public void scanMatchSet(final Database db, final String input, final MatchSet matchSet) {
+        checkMatchSet(db, matchSet);
+        if (isShorterThanMinWidth(db, input)) {
+            return;
+        }
+
+        scan(db, toInputBuffer(Utf8Encoder.encode(input)), matchSetHandler(matchSet));
+    }
+
+    /**
+     * Adds the expressions matching raw bytes to a match set, without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db       Database containing expressions to use for matching.
+     * @param input    Bytes to match against.
+     * @param matchSet Match set created for the database, the matching expressions are added to.
+     * @throws IllegalArgumentException if the match set has been created for another database
+     */
+    public void scanMatchSet(final Database db, final byte[] input, final MatchSet matchSet) {
+        checkMatchSet(db, matchSet);
+        scan(db, ByteBuffer.wrap(input), matchSetHandler(matchSet));
+    }
 
+    /**
+     * Adds the expressions matching an input encoded once for several databases to a match set, without creating match objects.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db       Database containing expressions to use for matching.
+     * @param input    Input to match against.
+     * @param matchSet Match set created for the database, the matching expressions are added to.
+     * @throws IllegalArgumentException if the match set has been created for another database or
+     *                                  a Latin-1 input is scanned against a database with UTF8 or UCP expressions
+     */
+    public void scanMatchSet(final Database db, final ScanInput input, final MatchSet matchSet) {
+        checkMatchSet(db, matchSet);
+        checkEncoding(db, input);
+        scan(db, input.getBytes(), input.getLength(), matchSetHandler(matchSet));
+    }
+
+    /**
+     * Determines the matching expressions of every record.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db      Database containing expressions to use for matching.
+     * @param records Strings to match against.
+     * @return one match set per record, in the order of the records
+     */
+    public List<MatchSet> scanMatchSets(final Database db, final List<String> records) {
+        List<MatchSet> matchSets = new ArrayList<>(records.size());
+        for (String record : records) {
+            MatchSet matchSet = new MatchSet(db);
+            scanMatchSet(db, record, matchSet);
+            matchSets.add(matchSet);
+        }
+        return matchSets;
+    }
+
+    /**
+     * Scans a string reporting only the first match of every expression, as if compiled with
+     * {@link ExpressionFlag#SINGLEMATCH}, and returns a list of matches. Terminates once every expression
+     * of interest has matched. Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db            Database containing expressions to use for matching.
+     * @param input         String to match against.
+     * @param expressionIds Ids of the expressions of interest, all expressions if none are given.
+     * @return List of Matches
+     * @throws IllegalArgumentException if the database has no expression with one of the ids
+     */
+    public List<Match> scanFirstMatches(final Database db, final String input, final int... expressionIds) {
+        final LinkedList<Match> matches = new LinkedList<>();
+        scanFirstMatches(db, input, matchCollector(input, matches), expressionIds);
         return matches.isEmpty() ? emptyList() : matches;
     }
 
+    /**
+     * Scans a string reporting only the first match of every expression to the provided event handler using
+     * string character indices, as if compiled with {@link ExpressionFlag#SINGLEMATCH}.
+     * Terminates once every expression of interest has matched. Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db            Database containing expressions to use for matching.
+     * @param input         String to match against.
+     * @param eventHandler  Handler to receive match events with string indices.
+     * @param expressionIds Ids of the expressions of interest, all expressions if none are given.
+     * @throws IllegalArgumentException if the database has no expression with one of the ids
+     */
+    public void scanFirstMatches(final Database db, final String input, StringMatchEventHandler eventHandler, final int... expressionIds) {
+        // Fail on unknown ids even if the input is too short to match
+        FirstMatchFilter filter = new FirstMatchFilter(db, expressionIds);
+        if (isShorterThanMinWidth(db, input)) {
+            return;
+        }
+
+        // Filter first, so offsets are only mapped for the matches passed on
+        byte[] encoded = Utf8Encoder.encode(input);
+        scan(db, toInputBuffer(encoded), filter.wrap(toStringIndices(Utf8Encoder.map(input, encoded), (expressionId, fromStringIndex, toStringIndex, flags) ->
+                eventHandler.onMatch(db.getExpression(expressionId), fromStringIndex, toStringIndex))));
+    }
+
+    /**
+     * Scans raw bytes reporting only the first match of every expression to the provided event handler using
+     * byte indices, as if compiled with {@link ExpressionFlag#SINGLEMATCH}.
+     * Terminates once every expression of interest has matched. Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db            Database containing expressions to use for matching.
+     * @param input         Bytes to match against.
+     * @param eventHandler  Handler to receive match events with byte indices.
+     * @param expressionIds Ids of the expressions of interest, all expressions if none are given.
+     * @throws IllegalArgumentException if the database has no expression with one of the ids
+     */
+    public void scanFirstMatches(final Database db, final byte[] input, ByteMatchEventHandler eventHandler, final int... expressionIds) {
+        FirstMatchFilter filter = new FirstMatchFilter(db, expressionIds);
+        scan(db, ByteBuffer.wrap(input), filter.wrap((expressionId, fromByteIdx, toByteIdx, flags) ->
+                eventHandler.onMatch(db.getExpression(expressionId), fromByteIdx, toByteIdx)));
+    }
+
+    private static void checkMatchSet(final Database db, final MatchSet matchSet) {
+        if (matchSet.getDatabase() != db) {
+            throw new IllegalArgumentException("Match set has been created for another database");
+        }
+    }
+
+    static RawMatchEventHandler matchSetHandler(final MatchSet matchSet) {
+        return (expressionId, fromByteIdx, toByteIdx, flags) -> matchSet.add(expressionId);
+    }
+
+    private static void checkEncoding(final Database db, final ScanInput input) {
+        if (input.isLatin1() && db.isUtf8()) {
+            throw new IllegalArgumentException("Database contains UTF8 or UCP expressions, use ScanInput.of for UTF-8 input");
+        }
+    }
+
+    /**
+     * @param input input the matched strings are cut from on first access, or null to not retain it
+     */
+    private static StringMatchEventHandler matchCollector(final String input, final List<Match> matches) {
+        return (expression, fromStringIndexLong, toStringIndexLong) -> {
+            matches.add(new Match((int)fromStringIndexLong, (int)toStringIndexLong, expression, input));
+            return true;
+        };
+    }
+
     /**
      * Scans a string for matches using a compiled expression database and reports
      * matches to the provided event handler using string character indices.
@@ -144,23 +501,10 @@ public class Scanner implements Closeable {
      * @param eventHandler Handler to receive match events with string indices.
      */
     public void scan(final Database db, final String input, StringMatchEventHandler eventHandler) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(input.length() * 4);
-        final ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(byteBuffer, input);
-
-        scan(db, byteBuffer, (expressionId, fromByteIdx, toByteIdx, flags) -> {
-            Expression expression = db.getExpression(expressionId);
-            long fromStringIndex = mapping.getMappingSize() > 0 ? mapping.getCharIndex((int)fromByteIdx) : 0;
-            long toStringIndex = 0;
-
-            if(toByteIdx > 0) {
-                toStringIndex = mapping.getMappingSize() > 0 ? mapping.getCharIndex((int)toByteIdx - 1) : 0;
-            }
-
-            return eventHandler.onMatch(expression, fromStringIndex, toStringIndex);
-        });
+        scanString(db, input, (expressionId, fromStringIndex, toStringIndex, flags) ->
+                eventHandler.onMatch(db.getExpression(expressionId), fromStringIndex, toStringIndex));
     }
 
-
     /**
      * Scans raw bytes for matches using a compiled expression database and reports
      * matches to the provided event handler using byte indices.
@@ -177,6 +521,91 @@ public class Scanner implements Closeable {
         );
     }
 
+    /**
+     * Scans a string and reports matches together with the payload attached to the matching expression.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database compiled with payloads, see {@link Database#compile(List, List)}.
+     * @param input        String to match against.
+     * @param eventHandler Handler to receive match events with string indices.
+     * @param <T>          Type of the payloads
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void scan(final Database db, final String input, PayloadMatchEventHandler<T> eventHandler) {
+        scanString(db, input, (expressionId, fromStringIndex, toStringIndex, flags) ->
+                eventHandler.onMatch(expressionId, (T) db.getPayload(expressionId), fromStringIndex, toStringIndex));
+    }
+
+    /**
+     * Scans raw bytes and reports matches together with the payload attached to the matching expression.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database compiled with payloads, see {@link Database#compile(List, List)}.
+     * @param input        Bytes to match against.
+     * @param eventHandler Handler to receive match events with byte indices, the end offset is exclusive.
+     * @param <T>          Type of the payloads
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void scan(final Database db, final byte[] input, PayloadMatchEventHandler<T> eventHandler) {
+        scan(db, ByteBuffer.wrap(input), (expressionId, fromByteIdx, toByteIdx, flags) ->
+                eventHandler.onMatch(expressionId, (T) db.getPayload(expressionId), fromByteIdx, toByteIdx));
+    }
+
+    /**
+     * Scans a string and reports matches together with the tag attached to the matching expression.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database compiled with tags, see {@link Database#compile(List, long[])}.
+     * @param input        String to match against.
+     * @param eventHandler Handler to receive match events with string indices.
+     */
+    public void scanTagged(final Database db, final String input, TagMatchEventHandler eventHandler) {
+        scanString(db, input, (expressionId, fromStringIndex, toStringIndex, flags) ->
+                eventHandler.onMatch(expressionId, db.getTag(expressionId), fromStringIndex, toStringIndex));
+    }
+
+    /**
+     * Scans raw bytes and reports matches together with the tag attached to the matching expression.
+     * Can only be executed one at a time on a per-instance basis.
+     *
+     * @param db           Database compiled with tags, see {@link Database#compile(List, long[])}.
+     * @param input        Bytes to match against.
+     * @param eventHandler Handler to receive match events with byte indices, the end offset is exclusive.
+     */
+    public void scanTagged(final Database db, final byte[] input, TagMatchEventHandler eventHandler) {
+        scan(db, ByteBuffer.wrap(input), (expressionId, fromByteIdx, toByteIdx, flags) ->
+                eventHandler.onMatch(expressionId, db.getTag(expressionId), fromByteIdx, toByteIdx));
+    }
+
+    /**
+     * Encodes a string and scans it, translating the byte offsets reported by hyperscan to
+     * inclusive string character indices before handing them to the event handler.
+     */
+    private void scanString(final Database db, final String input, RawMatchEventHandler eventHandler) {
+        if (isShorterThanMinWidth(db, input)) {
+            return;
+        }
+
+        byte[] encoded = Utf8Encoder.encode(input);
+        scan(db, toInputBuffer(encoded), toStringIndices(Utf8Encoder.map(input, encoded), eventHandler));
+    }
+
+    /**
+     * Translates the byte offsets reported by hyperscan to inclusive string character indices
+     */
+    private static RawMatchEventHandler toStringIndices(final ByteCharLookup mapping, final RawMatchEventHandler eventHandler) {
+        return (expressionId, fromByteIdx, toByteIdx, flags) -> {
+            long fromStringIndex = mapping.getMappingSize() > 0 ? mapping.getCharIndex((int)fromByteIdx) : 0;
+            long toStringIndex = 0;
+
+            if(toByteIdx > 0) {
+                toStringIndex = mapping.getMappingSize() > 0 ? mapping.getCharIndex((int)toByteIdx - 1) : 0;
+            }
+
+            return eventHandler.onMatch(expressionId, fromStringIndex, toStringIndex, flags);
+        };
+    }
+
     /**
      * Core scanning logic. Sets the thread-local callback and invokes the native hs_scan function.
      *
@@ -184,7 +613,33 @@ public class Scanner implements Closeable {
      * @param input        The raw byte array to scan.
      * @param eventHandler The raw handler to process matches reported by the native layer.
      */
-    private int scan(final Database db, final ByteBuffer input, RawMatchEventHandler eventHandler) {
+    int scan(final Database db, final ByteBuffer input, RawMatchEventHandler eventHandler) {
+        if (!prepareScan(db, input.remaining())) {
+            return 0;
+        }
+
+        try (final BytePointer bytePointer = new BytePointer(input)) {
+            return scanNative(db, bytePointer.position(input.position()), input.remaining(), eventHandler);
+        }
+    }
+
+    /**
+     * Scans native memory, see {@link #scan(Database, ByteBuffer, RawMatchEventHandler)}
+     */
+    private int scan(final Database db, final BytePointer input, final int length, RawMatchEventHandler eventHandler) {
+        if (!prepareScan(db, length)) {
+            return 0;
+        }
+
+        return scanNative(db, input, length, eventHandler);
+    }
+
+    /**
+     * Checks the scanner can be used and makes sure the scratch space fits the database
+     *
+     * @return false if the input is too short to match at all
+     */
+    private boolean prepareScan(final Database db, final int length) {
         if (scratch == null) {
             throw new IllegalStateException("Scratch space has already been deallocated");
         }
@@ -193,37 +648,46 @@ public class Scanner implements Closeable {
             throw new IllegalStateException("Recursive scanning is not supported.");
         }
 
-        activeCallback.set(eventHandler);
+        if (length < db.getKnownMinWidth()) {
+            // Can't match at all, skip the native call
+            return false;
+        }
+
+        allocScratch(db);
+        return true;
+    }
+
+    private int scanNative(final Database db, final BytePointer input, final int length, RawMatchEventHandler eventHandler) {
+        activeCallback.set(db.fanOut(eventHandler));
 
-        int hsError = 0;
         try {
-            hs_database_t database = db.getDatabase();
-            try (final BytePointer bytePointer = new BytePointer(input)) {
-                hsError = hs_scan(database, bytePointer.position(input.position()), input.remaining(), 0, scratch, matchHandler, null);
+            int hsError = hs_scan(db.getDatabase(), input, length, 0, scratch, matchHandler, null);
 
-                if (hsError != 0 && hsError != HS_SCAN_TERMINATED) {
-                     throw HyperscanException.hsErrorToException(hsError);
-                }
+            if (hsError != 0 && hsError != HS_SCAN_TERMINATED) {
+                 throw HyperscanException.hsErrorToException(hsError);
             }
+            return hsError;
         } finally {
             activeCallback.remove(); // Ensure the thread-local is cleared
         }
-        return hsError;
     }
 
     /**
      * Check if there is at least one match in the given input ByteBuffer.
      * Scanning terminates immediately after the first match is found.
+     * Uses the existence variant of the database if enabled with {@link DatabaseOptions#isExistenceVariant()}.
      *
      * @param db    Database containing expressions to use for matching.
      * @param input Bytes to match against.
      * @return true if at least one match is found, false otherwise.
      */
     public boolean hasMatch(final Database db, final ByteBuffer input) {
+        Database variant = db.getExistenceVariant();
+
         // This handler returns false immediately upon the first match, terminating the scan.
         RawMatchEventHandler terminationHandler = (expressionId, fromByteIdx, toByteIdx, flags) -> false; // Request scan termination
 
-        int hsError = scan(db, input, terminationHandler);
+        int hsError = scan(variant, input, terminationHandler);
         // hsError == 0 means scan completed without matches.
         // hsError == HS_SCAN_TERMINATED means scan terminated early due to callback returning false (match found).
         return hsError == HS_SCAN_TERMINATED;
@@ -238,6 +702,10 @@ public class Scanner implements Closeable {
      * @return true if at least one match is found, false otherwise.
      */
     public boolean hasMatch(final Database db, final byte[] input) {
+        if (input.length < db.getKnownMinWidth()) {
+            return false;
+        }
+
         // Allocate a direct buffer and copy data
         ByteBuffer directBuffer = ByteBuffer.allocateDirect(input.length);
         directBuffer.put(input);
@@ -254,9 +722,60 @@ public class Scanner implements Closeable {
      * @return true if at least one match is found, false otherwise.
      */
     public boolean hasMatch(final Database db, final String input) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(input.length() * 4);
-        Utf8Encoder.encodeToBufferAndMap(byteBuffer, input);
-        return hasMatch(db, byteBuffer);
+        if (isShorterThanMinWidth(db, input)) {
+            return false;
+        }
+
+        return hasMatch(db, toInputBuffer(Utf8Encoder.encode(input)));
+    }
+
+    /**
+     * Check if there is at least one match in an input encoded once for several databases.
+     * Scanning terminates immediately after the first match is found.
+     *
+     * @param db    Database containing expressions to use for matching.
+     * @param input Input to match against.
+     * @return true if at least one match is found, false otherwise.
+     * @throws IllegalArgumentException if a Latin-1 input is scanned against a database with UTF8 or UCP expressions
+     */
+    public boolean hasMatch(final Database db, final ScanInput input) {
+        checkEncoding(db, input);
+        RawMatchEventHandler terminationHandler = (expressionId, fromByteIdx, toByteIdx, flags) -> false;
+        return scan(db.getExistenceVariant(), input.getBytes(), input.getLength(), terminationHandler) == HS_SCAN_TERMINATED;
+    }
+
+    /**
+     * Copies encoded input to the direct buffer reused across scans, so no direct memory needs to be allocated per scan.
+     * Inputs above {@link #MAX_RETAINED_INPUT_BUFFER} bytes get a buffer of their own.
+     */
+    private ByteBuffer toInputBuffer(final byte[] encoded) {
+        if (activeCallback.get() != null) {
+            // The buffer might be the one currently being scanned
+            throw new IllegalStateException("Recursive scanning is not supported.");
+        }
+
+        ByteBuffer buffer = inputBuffer;
+        if (buffer == null || buffer.capacity() < encoded.length) {
+            int capacity = buffer == null ? encoded.length : Math.max(encoded.length, Math.min(buffer.capacity() * 2, MAX_RETAINED_INPUT_BUFFER));
+            buffer = ByteBuffer.allocateDirect(capacity);
+            if (capacity <= MAX_RETAINED_INPUT_BUFFER) {
+                inputBuffer = buffer;
+            }
+        }
+
+        ((Buffer)buffer).clear();
+        buffer.put(encoded);
+        ((Buffer)buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Checks whether the encoded input is shorter than the shortest possible match of the database.
+     * Every character encodes to at least one byte, so the encoded length only needs to be calculated for short inputs.
+     */
+    private static boolean isShorterThanMinWidth(final Database db, final String input) {
+        int minWidth = db.getKnownMinWidth();
+        return input.length() < minWidth && Utf8Encoder.encodedLength(input) < minWidth;
     }
 
     @Override
@@ -265,5 +784,6 @@ public class Scanner implements Closeable {
             hs_free_scratch(scratch);
             scratch = null;
         }
+        inputBuffer = null;
     }
 }
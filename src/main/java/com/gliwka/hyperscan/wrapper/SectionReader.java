@@ -0,0 +1,60 @@
+package com.gliwka.hyperscan.wrapper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the length-prefixed sections of saved databases. The length is taken from the stream itself,
+ * so the bytes are read in chunks and memory is only allocated as they actually arrive.
+ * A corrupt length fails with an {@link EOFException} instead of an allocation of the claimed size.
+ */
+final class SectionReader {
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private SectionReader() {
+    }
+
+    /**
+     * @param in      stream to read from
+     * @param length  number of bytes to read
+     * @param section name of the section for error messages
+     * @return heap buffers holding the bytes in order, each at most {@value #CHUNK_SIZE} bytes long
+     * @throws EOFException if the stream ends before length bytes have been read
+     */
+    static List<ByteBuffer> read(InputStream in, long length, String section) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        long remaining = length;
+
+        while (remaining > 0) {
+            byte[] chunk = new byte[(int) Math.min(remaining, CHUNK_SIZE)];
+            int read = 0;
+            while (read < chunk.length) {
+                int count = in.read(chunk, read, chunk.length - read);
+                if (count < 0) {
+                    throw new EOFException(section + " is truncated");
+                }
+                read += count;
+            }
+            chunks.add(ByteBuffer.wrap(chunk));
+            remaining -= chunk.length;
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Copies the chunks read by {@link #read(InputStream, long, String)} into a buffer of their total size
+     *
+     * @param chunks chunks to copy
+     * @param target buffer to copy into, its position is left at the end of the copied bytes
+     */
+    static void copy(List<ByteBuffer> chunks, ByteBuffer target) {
+        for (ByteBuffer chunk : chunks) {
+            target.put(chunk);
+        }
+    }
+}
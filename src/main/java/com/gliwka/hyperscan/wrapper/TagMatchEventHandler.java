@@ -0,0 +1,24 @@
+package com.gliwka.hyperscan.wrapper;
+
+/**
+ * A functional interface for handling Hyperscan match events together with the primitive tag
+ * attached to the matching expression at compile time.
+ *
+ * @see Database#compile(java.util.List, long[])
+ * @see Scanner#scanTagged(Database, String, TagMatchEventHandler)
+ * @see Scanner#scanTagged(Database, byte[], TagMatchEventHandler)
+ */
+@FunctionalInterface
+public interface TagMatchEventHandler {
+    /**
+     * Callback method invoked when a pattern matches.
+     *
+     * @param expressionId The id of the expression that matched.
+     * @param tag          The tag attached to the expression.
+     * @param from         The starting index (inclusive) of the match.
+     * @param to           The ending index of the match. Inclusive character index when scanning strings,
+     *                     exclusive byte offset when scanning bytes.
+     * @return {@code true} to continue scanning, {@code false} to stop scanning immediately.
+     */
+    boolean onMatch(int expressionId, long tag, long from, long to);
+}
@@ -0,0 +1,82 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.jni.hs_alloc_t;
+import com.gliwka.hyperscan.jni.hs_free_t;
+import org.bytedeco.javacpp.Pointer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator hook for one hyperscan allocation category, recording the size of every live allocation.
+ * Memory is obtained from the C library, so blocks allocated before the hook was installed
+ * (or after it was removed) can be released by either side.
+ */
+final class TrackingAllocator {
+    private final Map<Long, Long> sizes = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Referenced for the lifetime of the class, hyperscan keeps calling the native thunks
+    private final hs_alloc_t alloc = new hs_alloc_t() {
+        @Override
+        public Pointer call(long size) {
+            Pointer pointer = Pointer.malloc(size);
+            if (pointer != null && !pointer.isNull()) {
+                sizes.put(pointer.address(), size);
+                bytes.addAndGet(size);
+            }
+            return pointer;
+        }
+    };
+
+    private final hs_free_t free = new hs_free_t() {
+        @Override
+        public void call(Pointer pointer) {
+            if (pointer == null || pointer.isNull()) {
+                return;
+            }
+
+            Long size = sizes.remove(pointer.address());
+            if (size != null) {
+                bytes.addAndGet(-size);
+            }
+            Pointer.free(pointer);
+        }
+    };
+
+    hs_alloc_t getAlloc() {
+        return alloc;
+    }
+
+    hs_free_t getFree() {
+        return free;
+    }
+
+    /**
+     * Records a block hyperscan allocated without calling this allocator, but will release through it
+     *
+     * @param pointer block
+     * @param size    size of the block in bytes
+     */
+    void record(Pointer pointer, long size) {
+        if (sizes.put(pointer.address(), size) == null) {
+            bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * @return bytes currently allocated through this allocator
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Forgets all recorded allocations, used once hyperscan no longer routes its frees through this allocator
+     */
+    void reset() {
+        sizes.clear();
+        bytes.set(0);
+    }
+}
@@ -0,0 +1,88 @@
+package com.gliwka.hyperscan.wrapper;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+
+/**
+ * CPU microarchitecture families a database can be tuned for. Tuning only affects performance,
+ * a database tuned for one family can be used on every CPU supporting its {@link CpuFeature}s.
+ *
+ * @see Platform
+ */
+public enum TuneFamily {
+    /**
+     * Generic, no particular microarchitecture
+     */
+    GENERIC(HS_TUNE_FAMILY_GENERIC),
+
+    /**
+     * Intel(R) microarchitecture code name Sandy Bridge
+     */
+    SNB(HS_TUNE_FAMILY_SNB),
+
+    /**
+     * Intel(R) microarchitecture code name Ivy Bridge
+     */
+    IVB(HS_TUNE_FAMILY_IVB),
+
+    /**
+     * Intel(R) microarchitecture code name Haswell
+     */
+    HSW(HS_TUNE_FAMILY_HSW),
+
+    /**
+     * Intel(R) microarchitecture code name Silvermont
+     */
+    SLM(HS_TUNE_FAMILY_SLM),
+
+    /**
+     * Intel(R) microarchitecture code name Broadwell
+     */
+    BDW(HS_TUNE_FAMILY_BDW),
+
+    /**
+     * Intel(R) microarchitecture code name Skylake
+     */
+    SKL(HS_TUNE_FAMILY_SKL),
+
+    /**
+     * Intel(R) microarchitecture code name Skylake Server
+     */
+    SKX(HS_TUNE_FAMILY_SKX),
+
+    /**
+     * Intel(R) microarchitecture code name Goldmont
+     */
+    GLM(HS_TUNE_FAMILY_GLM),
+
+    /**
+     * Intel(R) microarchitecture code name Icelake
+     */
+    ICL(HS_TUNE_FAMILY_ICL),
+
+    /**
+     * Intel(R) microarchitecture code name Icelake Server
+     */
+    ICX(HS_TUNE_FAMILY_ICX);
+
+    private final int value;
+
+    TuneFamily(int value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the HS_TUNE_FAMILY_* value of the family
+     */
+    public int getValue() {
+        return value;
+    }
+
+    static TuneFamily of(int value) {
+        for (TuneFamily family : values()) {
+            if (family.value == value) {
+                return family;
+            }
+        }
+        return GENERIC;
+    }
+}
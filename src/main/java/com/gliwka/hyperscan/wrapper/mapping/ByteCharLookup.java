@@ -0,0 +1,46 @@
+package com.gliwka.hyperscan.wrapper.mapping;
+
+/**
+ * Read-only lookup of the character index a byte index of an encoded string belongs to.
+ */
+public interface ByteCharLookup {
+
+    /**
+     * Gets the character index corresponding to the given byte index.
+     *
+     * @param byteIndex The byte index.
+     * @return The character index.
+     */
+    int getCharIndex(int byteIndex);
+
+    /**
+     * Returns the size of the underlying mapping (number of byte indices mapped).
+     *
+     * @return The size of the mapping.
+     */
+    int getMappingSize();
+
+    /**
+     * Factory method to create the lookup of an ASCII string, where the byte index is the character index.
+     *
+     * @param size The length of the string.
+     * @return A ByteCharLookup without any storage.
+     */
+    static ByteCharLookup identity(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size can't be negative");
+        }
+
+        return new IdentityMapping(size);
+    }
+
+    /**
+     * Factory method to create a lookup computing character indices on demand from UTF-8 bytes.
+     *
+     * @param encoded The UTF-8 encoded string, must not be modified while the lookup is in use.
+     * @return A ByteCharLookup without any per byte storage.
+     */
+    static ByteCharLookup utf8(byte[] encoded) {
+        return new Utf8Mapping(encoded);
+    }
+}
@@ -1,10 +1,13 @@
 package com.gliwka.hyperscan.wrapper.mapping;
 
 /**
- * Interface for mapping byte indices to character indices.
+ * Interface for mapping byte indices to character indices, storing an entry per byte.
  * Implementations can use different underlying array types for memory use optimization.
+ *
+ * @deprecated Scanning no longer fills a mapping per byte, see {@link ByteCharLookup}
  */
-public interface ByteCharMapping {
+@Deprecated
+public interface ByteCharMapping extends ByteCharLookup {
 
     /**
      * Sets the character index for a given byte index.
@@ -14,21 +17,6 @@ public interface ByteCharMapping {
      */
     void setCharIndex(int byteIndex, int charIndex);
 
-    /**
-     * Gets the character index corresponding to the given byte index.
-     *
-     * @param byteIndex The byte index.
-     * @return The character index.
-     */
-    int getCharIndex(int byteIndex);
-
-    /**
-     * Returns the size of the underlying mapping (number of byte indices mapped).
-     *
-     * @return The size of the mapping.
-     */
-    int getMappingSize();
-
     /**
      * Factory method to create the most memory-efficient mapping based on the maximum
      * character index needed and the total number of bytes in the encoded string.
@@ -3,7 +3,10 @@ package com.gliwka.hyperscan.wrapper.mapping;
 /**
  * ByteCharMapping implementation using a byte array.
  * Stores character indices as unsigned bytes (0-255).
+ *
+ * @deprecated Scanning no longer fills a mapping per byte, see {@link ByteCharLookup}
  */
+@Deprecated
 public class ByteMapping implements ByteCharMapping {
     private final byte[] mapping;
 
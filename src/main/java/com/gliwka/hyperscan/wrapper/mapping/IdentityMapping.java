@@ -0,0 +1,23 @@
+package com.gliwka.hyperscan.wrapper.mapping;
+
+/**
+ * ByteCharLookup implementation for ASCII strings, where every character is encoded as a single byte.
+ * The byte index is the character index, so nothing needs to be stored.
+ */
+public class IdentityMapping implements ByteCharLookup {
+    private final int size;
+
+    IdentityMapping(int size) {
+        this.size = size;
+    }
+
+    @Override
+    public int getCharIndex(int byteIndex) {
+        return byteIndex;
+    }
+
+    @Override
+    public int getMappingSize() {
+        return size;
+    }
+}
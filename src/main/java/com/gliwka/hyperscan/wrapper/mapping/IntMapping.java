@@ -2,7 +2,10 @@ package com.gliwka.hyperscan.wrapper.mapping;
 
 /**
  * ByteCharMapping implementation using an int array.
+ *
+ * @deprecated Scanning no longer fills a mapping per byte, see {@link ByteCharLookup}
  */
+@Deprecated
 public class IntMapping implements ByteCharMapping {
     private final int[] mapping;
 
@@ -3,7 +3,10 @@ package com.gliwka.hyperscan.wrapper.mapping;
 /**
  * ByteCharMapping implementation using a short array.
  * Stores character indices as unsigned shorts (0-65535).
+ *
+ * @deprecated Scanning no longer fills a mapping per byte, see {@link ByteCharLookup}
  */
+@Deprecated
 public class ShortMapping implements ByteCharMapping {
     private final short[] mapping;
 
@@ -0,0 +1,100 @@
+package com.gliwka.hyperscan.wrapper.mapping;
+
+/**
+ * ByteCharLookup implementation computing character indices on demand from the UTF-8 bytes.
+ * Instead of an entry per byte, a checkpoint is recorded for every {@value #CHECKPOINT_INTERVAL} bytes the first time
+ * a lookup decodes past them. Lookups decode forward from the previous lookup or the nearest checkpoint,
+ * so ascending lookups (as for matches reported by hyperscan) cost a single pass over the bytes in total,
+ * and any other lookup at most {@value #CHECKPOINT_INTERVAL} bytes once the checkpoints have been recorded.
+ * The first two bytes of a 4-byte sequence map to the high surrogate, the last two to the low surrogate.
+ */
+public class Utf8Mapping implements ByteCharLookup {
+    private static final int CHECKPOINT_SHIFT = 6;
+    private static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT;
+
+    private final byte[] encoded;
+
+    /**
+     * Character index of the first UTF-8 sequence starting at or after {@code i * CHECKPOINT_INTERVAL}
+     * and that sequence's distance from there. Null until the first lookup.
+     */
+    private int[] checkpointChars;
+    private byte[] checkpointOffsets;
+    private int checkpoints;
+    private int nextCheckpoint;
+
+    /**
+     * Start of the UTF-8 sequence reached by the previous lookup and its character index
+     */
+    private int byteIndex;
+    private int charIndex;
+
+    Utf8Mapping(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    @Override
+    public int getCharIndex(int byteIndex) {
+        if (byteIndex < 0 || byteIndex >= encoded.length) {
+            throw new IndexOutOfBoundsException("Byte index " + byteIndex + " out of bounds for length " + encoded.length);
+        }
+
+        if (checkpointChars == null) {
+            int count = (encoded.length >> CHECKPOINT_SHIFT) + 1;
+            checkpointChars = new int[count];
+            checkpointOffsets = new byte[count];
+            checkpoints = 1;
+            nextCheckpoint = CHECKPOINT_INTERVAL;
+        }
+
+        int checkpoint = Math.min(byteIndex >> CHECKPOINT_SHIFT, checkpoints - 1);
+        if (byteIndex < this.byteIndex || checkpoint > this.byteIndex >> CHECKPOINT_SHIFT) {
+            // Behind the previous lookup or a checkpoint closer than it, the sequence containing
+            // the byte might start in the block of the previous checkpoint
+            while (checkpoint > 0 && (checkpoint << CHECKPOINT_SHIFT) + checkpointOffsets[checkpoint] > byteIndex) {
+                checkpoint--;
+            }
+            this.byteIndex = (checkpoint << CHECKPOINT_SHIFT) + checkpointOffsets[checkpoint];
+            this.charIndex = checkpointChars[checkpoint];
+        }
+
+        int position = this.byteIndex;
+        int chars = this.charIndex;
+        int length = sequenceLength(encoded[position]);
+
+        while (position + length <= byteIndex) {
+            position += length;
+            chars += length == 4 ? 2 : 1;
+            length = sequenceLength(encoded[position]);
+
+            if (position >= nextCheckpoint) {
+                // Sequences are at most 4 bytes long, so this is the first one at or after the checkpoint
+                checkpointChars[checkpoints] = chars;
+                checkpointOffsets[checkpoints] = (byte) (position - nextCheckpoint);
+                checkpoints++;
+                nextCheckpoint += CHECKPOINT_INTERVAL;
+            }
+        }
+
+        this.byteIndex = position;
+        this.charIndex = chars;
+        return length == 4 && byteIndex - position >= 2 ? chars + 1 : chars;
+    }
+
+    @Override
+    public int getMappingSize() {
+        return encoded.length;
+    }
+
+    private static int sequenceLength(byte lead) {
+        int value = lead & 0xff;
+        if (value < 0xc0) {
+            return 1;
+        } else if (value < 0xe0) {
+            return 2;
+        } else if (value < 0xf0) {
+            return 3;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,75 @@
+package com.gliwka.hyperscan.util;
+
+import com.gliwka.hyperscan.wrapper.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static com.gliwka.hyperscan.util.Condition.not;
+import static com.gliwka.hyperscan.util.Condition.of;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CombinationBuilderTest {
+
+    @Test
+    void onlyCombinationsAreReported() throws Exception {
+        CombinationBuilder builder = new CombinationBuilder()
+                .add(10, of("foo").and(of("bar")))
+                .add(20, of("foo").and(not(of("baz", EnumSet.of(ExpressionFlag.CASELESS)))))
+                .add(30, Condition.or(of("qux"), of("bar").and(of("baz", EnumSet.of(ExpressionFlag.CASELESS)))));
+
+        List<Expression> expressions = builder.build();
+        // foo, bar, baz and qux once each with ids above the highest combination id, plus three combinations
+        assertEquals(7, expressions.size());
+        assertEquals("(31 & 32)", expressions.get(4).getExpression());
+        assertEquals("(31 & !33)", expressions.get(5).getExpression());
+        assertEquals("(34 | (32 & 33))", expressions.get(6).getExpression());
+
+        try (Database db = builder.compile(); Scanner scanner = new Scanner()) {
+            scanner.allocScratch(db);
+
+            assertEquals(asIds(10, 20), matchedIds(scanner, db, "foo bar"));
+            assertEquals(asIds(20), matchedIds(scanner, db, "foo"));
+            assertEquals(asIds(30), matchedIds(scanner, db, "BAZ bar"));
+            assertEquals(asIds(), matchedIds(scanner, db, "baz foo"));
+        }
+    }
+
+    @Test
+    void conditionsAreNotBackedByTheCallersArray() {
+        Condition[] operands = {of("foo"), of("bar")};
+        Condition and = Condition.and(operands);
+        Condition or = Condition.or(operands);
+
+        operands[1] = of("baz");
+
+        assertEquals(Condition.and(of("foo"), of("bar")), and);
+        assertEquals(Condition.or(of("foo"), of("bar")), or);
+    }
+
+    @Test
+    void invalidUsageShouldThrow() {
+        CombinationBuilder builder = new CombinationBuilder().add(1, of("foo"));
+
+        assertThrows(IllegalArgumentException.class, () -> builder.add(1, of("bar")));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(-1, of("bar")));
+        assertThrows(IllegalArgumentException.class, () -> of(new Expression("1 & 2", ExpressionFlag.COMBINATION)));
+        assertThrows(IllegalStateException.class, () -> new CombinationBuilder().build());
+        assertThrows(IllegalStateException.class, () -> new CombinationBuilder().add(Integer.MAX_VALUE, of("foo")).build());
+    }
+
+    private static List<Integer> matchedIds(Scanner scanner, Database db, String input) {
+        return scanner.scan(db, input).stream()
+                .map(match -> match.getMatchedExpression().getId())
+                .distinct()
+                .sorted()
+                .collect(toList());
+    }
+
+    private static List<Integer> asIds(Integer... ids) {
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,214 @@
+package com.gliwka.hyperscan.util;
+
+import com.gliwka.hyperscan.wrapper.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseRegistryTest {
+    private static Database compile(String tenant) throws CompileErrorException {
+        return Database.compile(new Expression(tenant + "[0-9]+"));
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedDatabasesAreEvicted() throws Exception {
+        long size;
+        try (Database db = compile("a")) {
+            size = db.getSize();
+        }
+
+        List<String> loaded = new ArrayList<>();
+        DatabaseRegistry<String> registry = new DatabaseRegistry<>(2 * size, tenant -> {
+            loaded.add(tenant);
+            return compile(tenant);
+        });
+
+        registry.acquire("a").close();
+        registry.acquire("b").close();
+        registry.acquire("a").close();
+        assertEquals(2, registry.size());
+        assertEquals(2 * size, registry.getResidentBytes());
+
+        // b is the least recently used
+        registry.acquire("c").close();
+        registry.acquire("a").close();
+        registry.acquire("b").close();
+        assertEquals(Arrays.asList("a", "b", "c", "b"), loaded);
+        assertEquals(2, registry.size());
+
+        registry.close();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getResidentBytes());
+        assertThrows(IllegalStateException.class, () -> registry.acquire("a"));
+    }
+
+    @Test
+    void evictedDatabaseStaysUsableUntilReleased() throws Exception {
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(0, DatabaseRegistryTest::compile);
+             Scanner scanner = new Scanner()) {
+            DatabaseRegistry.Lease lease = registry.acquire("a");
+            Database db = lease.getDatabase();
+
+            // a single database exceeding the budget is kept while in use, but evicted by the next one
+            registry.acquire("b").close();
+            assertEquals(1, registry.size());
+
+            scanner.allocScratch(db);
+            assertEquals(1, scanner.scan(db, "a1").size());
+
+            lease.close();
+            assertThrows(IllegalStateException.class, db::getSize);
+            assertThrows(IllegalStateException.class, lease::getDatabase);
+        }
+    }
+
+    @Test
+    void failedLoadIsNotCached() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(Long.MAX_VALUE, tenant -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("unavailable");
+            }
+            return compile(tenant);
+        })) {
+            assertThrows(IOException.class, () -> registry.acquire("a"));
+            assertEquals(0, registry.size());
+
+            try (DatabaseRegistry.Lease lease = registry.acquire("a")) {
+                assertNotNull(lease.getDatabase());
+            }
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    void nullFromLoaderIsAnError() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(Long.MAX_VALUE, tenant ->
+                attempts.incrementAndGet() == 1 ? null : compile(tenant))) {
+            assertThrows(NullPointerException.class, () -> registry.acquire("a"));
+            assertEquals(0, registry.size());
+
+            // The failed load isn't left pending, so the key can be acquired again
+            try (DatabaseRegistry.Lease lease = registry.acquire("a")) {
+                assertNotNull(lease.getDatabase());
+            }
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    void concurrentlyAcquiredKeyIsLoadedOnce() throws Exception {
+        int threads = 8;
+        Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+        CountDownLatch allAcquiring = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(Long.MAX_VALUE, tenant -> {
+            loads.computeIfAbsent(tenant, key -> new AtomicInteger()).incrementAndGet();
+            // Keep loading until every thread has asked for the key
+            await(allAcquiring);
+            return compile(tenant);
+        })) {
+            List<Future<Database>> databases = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                String tenant = i % 2 == 0 ? "a" : "b";
+                databases.add(executor.submit(() -> {
+                    allAcquiring.countDown();
+                    try (DatabaseRegistry.Lease lease = registry.acquire(tenant)) {
+                        return lease.getDatabase();
+                    }
+                }));
+            }
+
+            for (int i = 0; i < threads; i++) {
+                assertSame(databases.get(i % 2).get(10, TimeUnit.SECONDS), databases.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get("a").get());
+            assertEquals(1, loads.get("b").get());
+            assertEquals(2, registry.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void leaseSurvivesEvictionByAnotherThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(0, DatabaseRegistryTest::compile);
+             Scanner scanner = new Scanner()) {
+            DatabaseRegistry.Lease lease = registry.acquire("a");
+            Database db = lease.getDatabase();
+
+            executor.submit(() -> {
+                registry.acquire("b").close();
+                return null;
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(1, registry.size());
+
+            scanner.allocScratch(db);
+            assertEquals(1, scanner.scan(db, "a1").size());
+
+            lease.close();
+            assertThrows(IllegalStateException.class, db::getSize);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void invalidateWhileLoadingEvictsLoadedDatabase() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (DatabaseRegistry<String> registry = new DatabaseRegistry<>(Long.MAX_VALUE, tenant -> {
+            if (loads.incrementAndGet() == 1) {
+                loading.countDown();
+                await(invalidated);
+            }
+            return compile(tenant);
+        })) {
+            Future<DatabaseRegistry.Lease> pending = executor.submit(() -> registry.acquire("a"));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+            registry.invalidate("a");
+            invalidated.countDown();
+
+            // The lease handed out for the load in progress stays valid, but the database isn't cached
+            DatabaseRegistry.Lease stale = pending.get(10, TimeUnit.SECONDS);
+            Database db = stale.getDatabase();
+            assertEquals(0, registry.size());
+            assertEquals(0, registry.getResidentBytes());
+
+            try (DatabaseRegistry.Lease lease = registry.acquire("a")) {
+                assertNotSame(db, lease.getDatabase());
+            }
+            assertEquals(2, loads.get());
+
+            stale.close();
+            assertThrows(IllegalStateException.class, db::getSize);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -59,6 +59,37 @@ class DatabaseTest {
         assertThat(exception.getMessage()).contains("Missing close parenthesis for group started at index 4.");
     }
 
+    @Test
+    void compileLenientCollectsAllErrors() throws CompileErrorException {
+        List<Expression> mixed = Arrays.asList(
+                new Expression("test(", 1),
+                new Expression("valid", 2),
+                new Expression("[a-", 3),
+                new Expression("1 & 99", EnumSet.of(ExpressionFlag.COMBINATION), 4),
+                new Expression("other", 5)
+        );
+
+        try (CompileResult result = Database.compileLenient(mixed)) {
+            assertThat(result.isComplete()).isFalse();
+            assertThat(result.getErrors())
+                    .extracting(CompileErrorException::getFailedExpression)
+                    .containsExactly(mixed.get(0), mixed.get(2), mixed.get(3));
+            assertThat(result.getErrors()).allSatisfy(e -> assertThat(e.getMessage()).isNotEmpty());
+
+            Database db = result.getDatabase();
+            assertThat(db.getExpressionCount()).isEqualTo(2);
+            assertThat(db.getExpression(2)).isEqualTo(mixed.get(1));
+            assertThat(db.getExpression(5)).isEqualTo(mixed.get(4));
+        }
+    }
+
+    @Test
+    void compileLenientWithoutValidExpressions() throws CompileErrorException {
+        CompileResult result = Database.compileLenient(Collections.singletonList(new Expression("test(")));
+        assertThat(result.getDatabase()).isNull();
+        assertThat(result.getErrors()).hasSize(1);
+    }
+
     @Test
     void compileWithNullExpressionShouldThrow() {
         assertThrows(NullPointerException.class, () -> Database.compile((Expression) null));
@@ -222,4 +253,345 @@ class DatabaseTest {
             }
         }
     }
+
+    @Test
+    void saveWithSeparateStreamsRoundtrip() throws CompileErrorException, IOException {
+        try (Database db = Database.compile(expressions)) {
+            ByteArrayOutputStream expressionsOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream databaseOut = new ByteArrayOutputStream();
+            db.save(expressionsOut, databaseOut);
+
+            try (Database loaded = Database.load(new ByteArrayInputStream(expressionsOut.toByteArray()),
+                    new ByteArrayInputStream(databaseOut.toByteArray()))) {
+                assertThat(loaded).isEqualTo(db);
+                assertThat(loaded.getExpression(0).getFlags()).containsExactly(ExpressionFlag.CASELESS);
+                assertThat(loaded.getExpression(1).getFlags()).containsExactly(ExpressionFlag.NO_FLAG);
+            }
+        }
+    }
+
+    @Test
+    void saveAndLoadUnicodePattern() throws CompileErrorException, IOException {
+        Expression unicodeExpression = new Expression("你好\\s*\uD83D\uDE00+", EnumSet.of(ExpressionFlag.UTF8), 3);
+
+        try (Database db = Database.compile(unicodeExpression)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()))) {
+                assertThat(loaded.getExpression(3)).isEqualTo(unicodeExpression);
+            }
+        }
+    }
+
+    @Test
+    void loadCorruptDatabaseShouldThrow() throws CompileErrorException, IOException {
+        try (Database db = Database.compile(expressions)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+            byte[] bytes = out.toByteArray();
+            // Flip a bit inside the serialized database, which is followed by its 4 byte checksum
+            bytes[bytes.length - 40] ^= 1;
+
+            IOException exception = assertThrows(IOException.class, () -> Database.load(new ByteArrayInputStream(bytes)));
+            assertThat(exception.getMessage()).contains("Checksum mismatch");
+        }
+    }
+
+    @Test
+    void loadCorruptLengthsShouldThrowWithoutAllocating() throws CompileErrorException, IOException {
+        try (Database db = Database.compile(expressions)) {
+            ByteArrayOutputStream expressionsOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream databaseOut = new ByteArrayOutputStream();
+            db.save(expressionsOut, databaseOut);
+
+            // Claim close to 2 GiB of pattern bytes: magic, version, info, min width, table features and count precede it
+            byte[] table = expressionsOut.toByteArray();
+            int infoLength = ((table[8] & 0xff) << 8) | (table[9] & 0xff);
+            writeInt(table, 8 + 2 + infoLength + 3 * 4, 0x7000_0000);
+            assertThrows(EOFException.class, () -> Database.load(new ByteArrayInputStream(table), new ByteArrayInputStream(databaseOut.toByteArray())));
+
+            byte[] database = databaseOut.toByteArray();
+            writeInt(database, 0, Integer.MAX_VALUE);
+            assertThrows(EOFException.class, () -> Database.load(new ByteArrayInputStream(expressionsOut.toByteArray()), new ByteArrayInputStream(database)));
+        }
+    }
+
+    @Test
+    void loadDatabaseFromDifferentVersionShouldThrow() throws CompileErrorException, IOException {
+        try (Database db = Database.compile(expressions)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+            String version = Scanner.getVersion().split(" ")[0];
+            byte[] bytes = replace(out.toByteArray(), "Version: " + version, "Version: " + version.replaceAll("\\d", "0"));
+
+            HyperscanException exception = assertThrows(HyperscanException.class, () -> Database.load(new ByteArrayInputStream(bytes)));
+            assertThat(exception.getMessage()).contains("different version");
+        }
+    }
+
+    @Test
+    void loadLegacyFormat() throws CompileErrorException, IOException {
+        try (Database db = Database.compile(expressions)) {
+            ByteArrayOutputStream expressionsOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream databaseOut = new ByteArrayOutputStream();
+            db.save(expressionsOut, databaseOut);
+
+            // The legacy format has no header and stores each expression with writeUTF
+            ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+            DataOutputStream legacyOut = new DataOutputStream(legacy);
+            legacyOut.writeInt(expressions.size());
+            for (Expression expression : expressions) {
+                legacyOut.writeInt(-1);
+                legacyOut.writeUTF(expression.getExpression());
+                legacyOut.writeInt(expression.getFlags().size());
+                for (ExpressionFlag flag : expression.getFlags()) {
+                    legacyOut.writeInt(flag.getBits());
+                }
+            }
+            // Apart from the trailing checksum the database section is unchanged
+            legacyOut.write(databaseOut.toByteArray());
+
+            try (Database loaded = Database.load(new ByteArrayInputStream(legacy.toByteArray()));
+                 Scanner scanner = new Scanner()) {
+                assertThat(loaded).isEqualTo(db);
+                scanner.allocScratch(loaded);
+                assertThat(scanner.hasMatch(loaded, "TEST")).isTrue();
+            }
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < Integer.BYTES; i++) {
+            bytes[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    private static byte[] replace(byte[] haystack, String target, String replacement) {
+        byte[] from = target.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        byte[] to = replacement.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        for (int i = 0; i + from.length <= haystack.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(haystack, i, i + from.length), from)) {
+                System.arraycopy(to, 0, haystack, i, to.length);
+                return haystack;
+            }
+        }
+        throw new IllegalArgumentException("Target not found");
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExpressionStorage.class)
+    void compileWithExpressionStorage(ExpressionStorage storage) throws CompileErrorException, IOException {
+        List<Expression> sparseIds = Arrays.asList(
+                new Expression("foo", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 5),
+                new Expression("b[a]r", EnumSet.of(ExpressionFlag.CASELESS), 1_000_000),
+                new Expression("你好", EnumSet.of(ExpressionFlag.UTF8), Integer.MAX_VALUE)
+        );
+        DatabaseOptions options = DatabaseOptions.builder().expressionStorage(storage).build();
+
+        try (Database db = Database.compile(sparseIds, options); Scanner scanner = new Scanner()) {
+            assertThat(db.getExpressionCount()).isEqualTo(3);
+            assertThat(db.getExpression(5)).isEqualTo(sparseIds.get(0));
+            assertThat(db.getExpression(1_000_000)).isEqualTo(sparseIds.get(1));
+            assertThat(db.getExpression(Integer.MAX_VALUE)).isEqualTo(sparseIds.get(2));
+            assertNull(db.getExpression(6));
+
+            scanner.allocScratch(db);
+            List<Match> matches = scanner.scan(db, "foo BAR 你好");
+            assertThat(matches).extracting(match -> match.getMatchedExpression().getId())
+                    .containsExactly(5, 1_000_000, Integer.MAX_VALUE);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()), options)) {
+                assertThat(loaded).isEqualTo(db);
+                assertThat(loaded.hashCode()).isEqualTo(db.hashCode());
+            }
+        }
+    }
+
+    @Test
+    void compactStorageShouldEqualObjectStorage() throws CompileErrorException {
+        DatabaseOptions compact = DatabaseOptions.builder().expressionStorage(ExpressionStorage.COMPACT_OFF_HEAP).build();
+
+        try (Database objects = Database.compile(expressions); Database table = Database.compile(expressions, compact)) {
+            assertThat(table).isEqualTo(objects);
+            assertThat(table.hashCode()).isEqualTo(objects.hashCode());
+            assertThat(table.getExpression(0)).isEqualTo(objects.getExpression(0)).isNotSameAs(objects.getExpression(0));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExpressionStorage.class)
+    void duplicateExpressionsAreCompiledOnceAndReportedForEveryId(ExpressionStorage storage) throws Exception {
+        List<Expression> duplicates = new ArrayList<>();
+        List<Integer> expectedIds = new ArrayList<>();
+        for (int id = 0; id < 100; id++) {
+            duplicates.add(new Expression(id % 2 == 0 ? "foo[0-9]+bar" : "b.z", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), id));
+            if (id % 2 == 0) {
+                expectedIds.add(id);
+            }
+        }
+        duplicates.add(new Expression("b.z", EnumSet.of(ExpressionFlag.SOM_LEFTMOST, ExpressionFlag.CASELESS), 100));
+        expectedIds.add(100);
+
+        DatabaseOptions options = DatabaseOptions.builder().expressionStorage(storage).build();
+        DatabaseOptions withoutDeduplication = DatabaseOptions.builder().expressionStorage(storage).deduplicateExpressions(false).build();
+
+        try (Database deduplicated = Database.compile(duplicates, options);
+             Database full = Database.compile(duplicates, withoutDeduplication);
+             Scanner scanner = new Scanner()) {
+            assertThat(deduplicated.getSize()).isLessThan(full.getSize());
+            assertThat(deduplicated).isEqualTo(full);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            deduplicated.save(out);
+
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()), options)) {
+                for (Database db : Arrays.asList(deduplicated, full, loaded)) {
+                    scanner.allocScratch(db);
+                    List<Match> matches = scanner.scan(db, "foo1bar BAZ");
+                    assertThat(matches).hasSize(51);
+                    assertThat(matches).extracting(match -> match.getMatchedExpression().getId())
+                            .containsExactlyInAnyOrderElementsOf(expectedIds);
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExpressionStorage.class)
+    void extendedParametersSurviveSaveAndLoad(ExpressionStorage storage) throws Exception {
+        ExtendedParameters parameters = ExtendedParameters.builder().minOffset(1L).maxOffset(512L).build();
+        List<Expression> extended = Arrays.asList(
+                new Expression("test", EnumSet.of(ExpressionFlag.CASELESS), 1, parameters),
+                new Expression("test", EnumSet.of(ExpressionFlag.CASELESS), 2),
+                new Expression("[0-9]+", EnumSet.of(ExpressionFlag.NO_FLAG), 3, ExtendedParameters.builder().build()));
+        DatabaseOptions options = DatabaseOptions.builder().expressionStorage(storage).build();
+
+        try (Database db = Database.compile(extended, options)) {
+            assertThat(db.getExpression(1).getExtendedParameters()).isEqualTo(parameters);
+            assertThat(db.getExpression(2).getExtendedParameters()).isNull();
+            assertThat(db.getExpression(3).getExtendedParameters()).isNull();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()), options)) {
+                assertThat(loaded).isEqualTo(db);
+                assertThat(loaded.getExpression(1).getExtendedParameters()).isEqualTo(parameters);
+            }
+        }
+    }
+
+    @Test
+    void negativeExtendedParametersShouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> ExtendedParameters.builder().maxOffset(-1L).build());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExpressionStorage.class)
+    void compileLiterals(ExpressionStorage storage) throws Exception {
+        List<Literal> literals = Arrays.asList(
+                new Literal("a.*b", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 1),
+                new Literal(new byte[]{'x', 0, (byte) 0xFF}, EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 2),
+                new Literal("Größe", EnumSet.of(ExpressionFlag.CASELESS), 3));
+        DatabaseOptions options = DatabaseOptions.builder().expressionStorage(storage).build();
+
+        try (Database db = Database.compileLiterals(literals, options); Scanner scanner = new Scanner()) {
+            byte[] input = {'a', 'x', 'b', 'a', '.', '*', 'b', 'x', 0, (byte) 0xFF};
+            List<String> matches = new ArrayList<>();
+
+            scanner.allocScratch(db);
+            scanner.scan(db, input, (expression, from, to) -> matches.add(expression.getId() + ":" + from + "-" + to));
+            assertThat(matches).containsExactly("1:3-7", "2:7-10");
+            assertThat(scanner.hasMatch(db, "GRÖSSE")).isFalse();
+            assertThat(scanner.hasMatch(db, "GRößE")).isTrue();
+
+            assertThat(db.getExpression(1).getExpression()).isEqualTo("a\\x2e\\x2ab");
+            assertThat(db.getExpression(2).getFlags()).containsExactly(ExpressionFlag.SOM_LEFTMOST);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()), options)) {
+                assertThat(loaded).isEqualTo(db);
+                scanner.allocScratch(loaded);
+                assertThat(scanner.hasMatch(loaded, new byte[]{'x', 0, (byte) 0xFF})).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void compileLiteralsWithUnsupportedFlagShouldThrow() {
+        List<Literal> literals = Collections.singletonList(new Literal("test", EnumSet.of(ExpressionFlag.UTF8), 1));
+        CompileErrorException exception = assertThrows(CompileErrorException.class, () -> Database.compileLiterals(literals));
+        assertThat(exception.getFailedExpression().getId()).isEqualTo(1);
+    }
+
+    @Test
+    void compileForPlatform() throws Exception {
+        Platform host = Platform.host();
+        assertThat(host.isSupportedByHost()).isTrue();
+        assertThat(Platform.GENERIC.isSupportedByHost()).isTrue();
+        assertThat(Platform.of(TuneFamily.SKL, EnumSet.of(CpuFeature.AVX2)).getCpuFeatures()).containsExactly(CpuFeature.AVX2);
+
+        for (Platform platform : Arrays.asList(Platform.GENERIC, host)) {
+            DatabaseOptions options = DatabaseOptions.builder().platform(platform).build();
+            try (Database db = Database.compile(expressions, options); Scanner scanner = new Scanner()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                db.save(out);
+
+                try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()))) {
+                    scanner.allocScratch(loaded);
+                    assertThat(scanner.scan(loaded, "TEST 4")).hasSize(2);
+                }
+            }
+        }
+    }
+
+    @Test
+    void databaseMinWidth() throws Exception {
+        List<Expression> widths = Arrays.asList(new Expression("abcdef", 0), new Expression("x[0-9]{2}y+", 1));
+        DatabaseOptions compact = DatabaseOptions.builder().expressionStorage(ExpressionStorage.COMPACT).build();
+        try (Database db = Database.compile(widths, compact)) {
+            // Not analyzed at compile time by default
+            assertThat(db.getKnownMinWidth()).isZero();
+
+            ByteArrayOutputStream unknown = new ByteArrayOutputStream();
+            db.save(unknown);
+            try (Database loaded = Database.load(new ByteArrayInputStream(unknown.toByteArray()))) {
+                assertThat(loaded.getKnownMinWidth()).isZero();
+                assertThat(loaded.getMinWidth()).isEqualTo(4);
+            }
+
+            assertThat(db.getMinWidth()).isEqualTo(4);
+            assertThat(db.getKnownMinWidth()).isEqualTo(4);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            db.save(out);
+            try (Database loaded = Database.load(new ByteArrayInputStream(out.toByteArray()))) {
+                assertThat(loaded.getKnownMinWidth()).isEqualTo(4);
+            }
+        }
+
+        try (Database db = Database.compile(widths, DatabaseOptions.builder().analyzeMinWidth(true).build())) {
+            assertThat(db.getKnownMinWidth()).isEqualTo(4);
+        }
+
+        // Reuses the widths of the validation pass
+        try (Database db = Database.compileLenient(widths).getDatabase()) {
+            assertThat(db.getKnownMinWidth()).isEqualTo(4);
+        }
+
+        try (Database literals = Database.compileLiterals(Arrays.asList(new Literal("abc"), new Literal("äb")))) {
+            assertThat(literals.getKnownMinWidth()).isEqualTo(3);
+        }
+
+        List<Expression> combination = Arrays.asList(
+                new Expression("abc", EnumSet.of(ExpressionFlag.QUIET), 0),
+                new Expression("!0", EnumSet.of(ExpressionFlag.COMBINATION), 1));
+        try (Database db = Database.compile(combination)) {
+            assertThat(db.getMinWidth()).isZero();
+        }
+    }
 }
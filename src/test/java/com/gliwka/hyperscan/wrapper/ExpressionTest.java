@@ -112,4 +112,38 @@ class ExpressionTest {
         assertNotEquals(expr1.hashCode(), expr3.hashCode());
         // Note: Hashcodes *might* collide for expr1/expr4/expr5, but it's unlikely and not required by contract
     }
+
+    @Test
+    void extendedParametersShouldBeValidated() {
+        Expression approximate = new Expression("hello", EnumSet.noneOf(ExpressionFlag.class), 0,
+                ExtendedParameters.builder().editDistance(2).build());
+        assertTrue(approximate.validate().isValid());
+
+        Expression vacuous = new Expression("abc", EnumSet.noneOf(ExpressionFlag.class), 0,
+                ExtendedParameters.builder().editDistance(3).build());
+        assertFalse(vacuous.validate().isValid());
+
+        Expression bothDistances = new Expression("hello", EnumSet.noneOf(ExpressionFlag.class), 0,
+                ExtendedParameters.builder().editDistance(1).hammingDistance(1).build());
+        Expression.ValidationResult result = bothDistances.validate();
+        assertFalse(result.isValid());
+        assertNotNull(result.getErrorMessage());
+    }
+
+    @Test
+    void analyzeExpression() throws CompileErrorException {
+        ExpressionInfo bounded = new Expression("ab[0-9]{2,4}").analyze();
+        assertEquals(4, bounded.getMinWidth());
+        assertEquals(6, bounded.getMaxWidth());
+        assertFalse(bounded.isMatchesAtEod());
+
+        ExpressionInfo unbounded = new Expression("a+b\\z").analyze();
+        assertEquals(2, unbounded.getMinWidth());
+        assertEquals(ExpressionInfo.UNBOUNDED, unbounded.getMaxWidth());
+        assertTrue(unbounded.isMatchesOnlyAtEod());
+
+        Expression invalid = new Expression("test(");
+        CompileErrorException exception = assertThrows(CompileErrorException.class, invalid::analyze);
+        assertSame(invalid, exception.getFailedExpression());
+    }
 }
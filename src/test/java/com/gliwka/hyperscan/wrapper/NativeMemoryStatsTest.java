@@ -0,0 +1,78 @@
+package com.gliwka.hyperscan.wrapper;
+
+import com.gliwka.hyperscan.jni.hs_compile_error_t;
+import com.gliwka.hyperscan.jni.hs_database_t;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static com.gliwka.hyperscan.jni.hyperscan.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NativeMemoryStatsTest {
+    @AfterEach
+    void disableTracking() {
+        NativeMemoryStats.disableTracking();
+    }
+
+    @Test
+    void trackDatabaseAndScratchMemory() throws CompileErrorException, IOException {
+        assertThat(NativeMemoryStats.current().getTotalBytes()).isZero();
+
+        NativeMemoryStats.enableTracking();
+        assertThat(NativeMemoryStats.isTrackingEnabled()).isTrue();
+
+        try (Database db = Database.compile(new Expression("Te?st"));
+             Scanner scanner = new Scanner()) {
+            NativeMemoryStats compiled = NativeMemoryStats.current();
+            assertThat(compiled.getDatabaseBytes()).isGreaterThanOrEqualTo(db.getSize());
+            assertThat(compiled.getScratchBytes()).isZero();
+
+            scanner.allocScratch(db);
+            NativeMemoryStats allocated = NativeMemoryStats.current();
+            assertThat(allocated.getScratchBytes()).isGreaterThanOrEqualTo(scanner.getSize());
+            assertThat(allocated.getTotalBytes())
+                    .isEqualTo(allocated.getDatabaseBytes() + allocated.getScratchBytes() + allocated.getStreamBytes());
+
+            assertThat(scanner.scan(db, "Test")).hasSize(1);
+        }
+
+        assertThat(NativeMemoryStats.current().getTotalBytes()).isZero();
+    }
+
+    @Test
+    void memoryAllocatedBeforeTrackingIsReleasedSafely() throws CompileErrorException {
+        Database db = Database.compile(new Expression("Te?st"));
+        NativeMemoryStats.enableTracking();
+
+        try (Database tracked = Database.compile(new Expression("foo"))) {
+            db.close();
+            assertThat(NativeMemoryStats.current().getDatabaseBytes()).isGreaterThanOrEqualTo(tracked.getSize());
+            NativeMemoryStats.disableTracking();
+            assertThat(NativeMemoryStats.current().getTotalBytes()).isZero();
+        }
+    }
+
+    @Test
+    void compiledDatabasesAreRecordedOnce() throws CompileErrorException {
+        NativeMemoryStats.enableTracking();
+
+        // The compiler doesn't allocate the database through the installed database allocator
+        try (BytePointer pattern = new BytePointer("Te?st");
+             PointerPointer<hs_database_t> database = new PointerPointer<>(1);
+             PointerPointer<hs_compile_error_t> error = new PointerPointer<>(1)) {
+            assertThat(hs_compile(pattern, 0, HS_MODE_BLOCK, null, database, error)).isZero();
+            assertThat(NativeMemoryStats.current().getDatabaseBytes()).isZero();
+            hs_free_database(database.get(hs_database_t.class));
+        }
+
+        // so Database.compile records it by hand, exactly once
+        try (Database db = Database.compile(new Expression("Te?st"))) {
+            assertThat(NativeMemoryStats.current().getDatabaseBytes()).isEqualTo(db.getSize());
+        }
+        assertThat(NativeMemoryStats.current().getDatabaseBytes()).isZero();
+    }
+}
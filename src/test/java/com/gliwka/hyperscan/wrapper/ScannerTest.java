@@ -7,12 +7,15 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.gliwka.hyperscan.jni.hyperscan.HS_SCAN_TERMINATED;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.*;
 
 class ScannerTest {
@@ -507,4 +510,346 @@ class ScannerTest {
             scanner.allocScratch(database);
         }
     }
+
+    @Test
+    void scanWithPayloads() throws CompileErrorException {
+        List<Expression> payloadExpressions = Arrays.asList(
+                new Expression("foo", ExpressionFlag.SOM_LEFTMOST, 10),
+                new Expression("bär", EnumSet.of(ExpressionFlag.SOM_LEFTMOST, ExpressionFlag.UTF8), 20));
+
+        try (Database db = Database.compile(payloadExpressions, Arrays.asList("first", "second"))) {
+            scanner.allocScratch(db);
+            List<String> matches = new ArrayList<>();
+
+            scanner.<String>scan(db, "bär foo", (id, payload, from, to) -> matches.add(id + ":" + payload + ":" + from + "-" + to));
+            assertThat(matches).containsExactly("20:second:0-2", "10:first:4-6");
+
+            matches.clear();
+            scanner.<String>scan(db, "bär foo".getBytes(StandardCharsets.UTF_8), (id, payload, from, to) -> matches.add(id + ":" + payload + ":" + from + "-" + to));
+            assertThat(matches).containsExactly("20:second:0-4", "10:first:5-8");
+
+            assertThat(db.getPayload(20)).isEqualTo("second");
+            assertThat(db.getPayload(30)).isNull();
+            scanner.allocScratch(database);
+        }
+    }
+
+    @Test
+    void scanWithTags() throws CompileErrorException {
+        List<Expression> taggedExpressions = Arrays.asList(
+                new Expression("foo", ExpressionFlag.SOM_LEFTMOST, 10),
+                new Expression("bar", ExpressionFlag.SOM_LEFTMOST, 20));
+
+        try (Database db = Database.compile(taggedExpressions, new long[]{Long.MAX_VALUE, -1L})) {
+            scanner.allocScratch(db);
+            List<Long> tags = new ArrayList<>();
+
+            scanner.scanTagged(db, "bar foo", (id, tag, from, to) -> tags.add(tag));
+            scanner.scanTagged(db, "foo".getBytes(StandardCharsets.UTF_8), (id, tag, from, to) -> tags.add(tag));
+            assertThat(tags).containsExactly(-1L, Long.MAX_VALUE, Long.MAX_VALUE);
+            assertThat(db.getTag(20)).isEqualTo(-1L);
+            scanner.allocScratch(database);
+        }
+    }
+
+    @Test
+    void compileWithWrongNumberOfPayloadsShouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> Database.compile(expressions, Collections.singletonList("only one")));
+        assertThrows(IllegalArgumentException.class, () -> Database.compile(expressions, new long[1]));
+    }
+
+    @Test
+    void scanWithExtendedParameters() throws CompileErrorException {
+        List<Expression> extended = Arrays.asList(
+                new Expression("abc", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 0, ExtendedParameters.builder().maxOffset(10L).build()),
+                new Expression("abc", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 1, ExtendedParameters.builder().minOffset(10L).build()),
+                new Expression("x+", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 2, ExtendedParameters.builder().minLength(3L).build()));
+
+        try (Database db = Database.compile(extended)) {
+            scanner.allocScratch(db);
+
+            assertThat(scanner.scan(db, "abc abc abc"))
+                    .extracting(match -> match.getMatchedExpression().getId() + "@" + match.getStartPosition())
+                    .containsExactly("0@0", "0@4", "1@8");
+            assertThat(scanner.scan(db, "x xx xxx"))
+                    .extracting(match -> match.getMatchedExpression().getId())
+                    .containsOnly(2)
+                    .isNotEmpty();
+            assertThat(scanner.hasMatch(db, "x xx")).isFalse();
+            scanner.allocScratch(database);
+        }
+    }
+
+    @Test
+    void scanWithApproximateMatching() throws CompileErrorException {
+        List<Expression> approximate = Arrays.asList(
+                new Expression("hello", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 0, ExtendedParameters.builder().editDistance(1).build()),
+                new Expression("world", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 1, ExtendedParameters.builder().hammingDistance(1).build()));
+
+        try (Database db = Database.compile(approximate)) {
+            scanner.allocScratch(db);
+
+            // "wrld" is within edit distance but not within Hamming distance
+            assertThat(scanner.scan(db, "helo wxrld wrld"))
+                    .extracting(Match::getMatchedString)
+                    .containsExactly("helo", "wxrld");
+            assertThat(db.getExpression(0).getExtendedParameters().getEditDistance()).isEqualTo(1);
+            scanner.allocScratch(database);
+        }
+    }
+
+    @Test
+    void inputShorterThanMinWidthShouldNotMatch() throws CompileErrorException {
+        Expression expression = new Expression("你好吗", EnumSet.of(ExpressionFlag.UTF8, ExpressionFlag.SOM_LEFTMOST));
+        try (Database db = Database.compile(Collections.singletonList(expression), DatabaseOptions.builder().analyzeMinWidth(true).build())) {
+            assertThat(db.getKnownMinWidth()).isEqualTo(9);
+            scanner.allocScratch(db);
+
+            assertThat(scanner.scan(db, "")).isEmpty();
+            assertThat(scanner.scan(db, "你好")).isEmpty();
+            assertThat(scanner.hasMatch(db, "你好")).isFalse();
+            assertThat(scanner.hasMatch(db, new byte[8])).isFalse();
+
+            // Three characters, but nine bytes
+            assertThat(scanner.scan(db, "你好吗")).hasSize(1);
+            assertThat(scanner.hasMatch(db, "你好吗")).isTrue();
+            scanner.allocScratch(database);
+        }
+    }
+
+    @Test
+    void hasMatchUsesExistenceVariant() throws CompileErrorException {
+        List<Expression> mixed = Arrays.asList(
+                new Expression("foo[0-9]+", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 0),
+                new Expression("bar", EnumSet.of(ExpressionFlag.QUIET), 1),
+                new Expression("baz", EnumSet.of(ExpressionFlag.QUIET), 2),
+                new Expression("1 & !2", EnumSet.of(ExpressionFlag.COMBINATION), 3));
+        DatabaseOptions options = DatabaseOptions.builder().existenceVariant(true).build();
+
+        try (Database db = Database.compile(mixed, options)) {
+            scanner.allocScratch(db);
+
+            assertThat(scanner.hasMatch(db, "foo123")).isTrue();
+            assertThat(scanner.hasMatch(db, "bar")).isTrue();
+            assertThat(scanner.hasMatch(db, "baz bar")).isFalse();
+            assertThat(scanner.scan(db, "baz bar")).isEmpty();
+            assertThat(scanner.hasMatch(db, "nothing")).isFalse();
+            assertThat(scanner.scan(db, "foo1 foo2")).hasSize(2);
+
+            Database variant = db.getExistenceVariant();
+            assertThat(variant).isNotSameAs(db).isSameAs(db.getExistenceVariant());
+            assertThat(variant.getExpression(0).getFlags()).containsExactly(ExpressionFlag.SINGLEMATCH);
+            assertThat(variant.getExpression(3).getFlags()).containsExactly(ExpressionFlag.COMBINATION);
+
+            db.close();
+            assertThrows(IllegalStateException.class, variant::getSize);
+        }
+        scanner.allocScratch(database);
+    }
+
+    @Test
+    void scratchGrowsOnFirstUseAndShrinksAfterClose() throws CompileErrorException, IOException {
+        List<Expression> large = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            large.add(new Expression("a" + i + "[a-z]{10,40}b" + i, EnumSet.of(ExpressionFlag.SOM_LEFTMOST), i));
+        }
+
+        try (Scanner fresh = new Scanner();
+             Database small = Database.compile(new Expression("foo"));
+             Database big = Database.compile(large)) {
+            // no explicit allocScratch needed
+            assertThat(fresh.scan(small, "foo")).hasSize(1);
+            long smallSize = fresh.getSize();
+
+            assertThat(fresh.scan(big, "a7abcdefghijkb7")).hasSize(1);
+            long bigSize = fresh.getSize();
+            assertThat(bigSize).isGreaterThan(smallSize);
+
+            // already sized for both
+            fresh.allocScratch(small);
+            fresh.allocScratch(big);
+            assertThat(fresh.getSize()).isEqualTo(bigSize);
+
+            big.close();
+            fresh.shrinkScratch();
+            assertThat(fresh.getSize()).isEqualTo(smallSize);
+            assertThat(fresh.scan(small, "foo")).hasSize(1);
+        }
+    }
+
+    @Test
+    void scanLatin1() throws CompileErrorException {
+        List<Expression> latin1 = Arrays.asList(
+                new Expression("caf\\xe9", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 0),
+                new Expression("test", EnumSet.of(ExpressionFlag.SOM_LEFTMOST), 1));
+
+        try (Database db = Database.compile(latin1)) {
+            List<Match> matches = scanner.scanLatin1(db, "Gr\u00f6\u00dfe caf\u00e9 test");
+            assertThat(matches).extracting(Match::getStartPosition, Match::getEndPosition, Match::getMatchedString)
+                    .containsExactly(tuple(6L, 9L, "caf\u00e9"), tuple(11L, 14L, "test"));
+
+            // UTF-8 encoding would not match the single byte
+            assertThat(scanner.scan(db, "caf\u00e9")).isEmpty();
+        }
+
+        try (Database db = Database.compile(new Expression("test", ExpressionFlag.UTF8))) {
+            assertThrows(IllegalArgumentException.class, () -> scanner.scanLatin1(db, "test"));
+        }
+    }
+
+    @Test
+    void scanInputAgainstSeveralDatabases() throws CompileErrorException {
+        String text = "Gr\u00f6\u00dfe \uD834\uDD1E test TEST nothing";
+
+        try (Database other = Database.compile(new Expression("n[a-z]+g", EnumSet.of(ExpressionFlag.SOM_LEFTMOST, ExpressionFlag.UTF8)));
+             ScanInput input = ScanInput.of(text)) {
+            assertThat(input.getLength()).isEqualTo(text.getBytes(StandardCharsets.UTF_8).length);
+
+            assertThat(scanner.scan(database, input))
+                    .extracting(Match::getStartPosition, Match::getEndPosition, Match::getMatchedString)
+                    .containsExactly(tuple(9L, 12L, "test"), tuple(14L, 17L, "TEST"));
+            assertThat(scanner.scan(other, input)).extracting(Match::getMatchedString).containsExactly("nothing");
+            assertThat(scanner.hasMatch(other, input)).isTrue();
+            assertThat(scanner.scan(database, input)).hasSize(2);
+
+            input.close();
+            assertThrows(IllegalStateException.class, () -> scanner.scan(other, input));
+        }
+
+        try (ScanInput empty = ScanInput.of("")) {
+            assertThat(scanner.scan(database, empty)).isEmpty();
+            assertThat(scanner.hasMatch(database, empty)).isFalse();
+        }
+    }
+
+    @Test
+    void latin1ScanInputRequiresNonUtf8Database() throws CompileErrorException {
+        try (Database latin1 = Database.compile(new Expression("caf\\xe9", ExpressionFlag.SOM_LEFTMOST));
+             Database utf8 = Database.compile(new Expression("caf", ExpressionFlag.UTF8));
+             ScanInput input = ScanInput.ofLatin1("un caf\u00e9")) {
+            assertThat(scanner.scan(latin1, input)).extracting(Match::getStartPosition).containsExactly(3L);
+            assertThrows(IllegalArgumentException.class, () -> scanner.scan(utf8, input));
+            assertThrows(IllegalArgumentException.class, () -> scanner.hasMatch(utf8, input));
+        }
+    }
+
+    @Test
+    void scanWithoutRetainingInput() throws CompileErrorException {
+        List<Expression> mixed = Arrays.asList(
+                new Expression("foo", ExpressionFlag.SOM_LEFTMOST, 0),
+                new Expression("bar", 1));
+
+        try (Database db = Database.compile(mixed)) {
+            List<Match> retained = scanner.scan(db, "foo bar");
+            assertThat(retained).extracting(Match::getMatchedString).containsExactly("foo", "");
+
+            List<Match> matches = scanner.scan(db, "foo bar", false);
+            assertThat(matches).extracting(Match::getEndPosition).containsExactly(2L, 6L);
+            assertThrows(IllegalStateException.class, () -> matches.get(0).getMatchedString());
+            assertThat(matches.get(1).getMatchedString()).isEmpty();
+        }
+    }
+
+    @Test
+    void countMatchesPerExpression() throws CompileErrorException {
+        List<Expression> sparse = Arrays.asList(
+                new Expression("foo", 7),
+                new Expression("ba[rz]", 1_000_000),
+                new Expression("qux", 3));
+
+        try (Database db = Database.compile(sparse);
+             Database other = Database.compile(new Expression("foo"))) {
+            MatchCounter counter = new MatchCounter(db);
+
+            scanner.count(db, "foo bar baz foo \u4e16 bar", counter);
+            assertThat(counter.getCount(7)).isEqualTo(2);
+            assertThat(counter.getCount(1_000_000)).isEqualTo(3);
+            assertThat(counter.getCount(3)).isZero();
+            assertThat(counter.getTotal()).isEqualTo(5);
+
+            // Counts accumulate until reset
+            scanner.count(db, "qux".getBytes(StandardCharsets.UTF_8), counter);
+            assertThat(counter.getCount(3)).isEqualTo(1);
+            assertThat(counter.getTotal()).isEqualTo(6);
+
+            counter.reset();
+            assertThat(counter.getTotal()).isZero();
+            assertThat(counter.getCount(7)).isZero();
+
+            assertThrows(IllegalArgumentException.class, () -> counter.getCount(8));
+            assertThrows(IllegalArgumentException.class, () -> scanner.count(other, "foo", counter));
+        }
+    }
+
+    @Test
+    void scanMatchSets() throws CompileErrorException {
+        List<Expression> rules = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rules.add(new Expression("rule" + i + "\\b", 1000 - i));
+        }
+
+        try (Database db = Database.compile(rules, DatabaseOptions.builder().expressionStorage(ExpressionStorage.COMPACT).build())) {
+            List<MatchSet> matchSets = scanner.scanMatchSets(db, Arrays.asList(
+                    "rule99 rule3 rule3 rule70 rule3", "nothing", "rule64 rule63"));
+
+            assertThat(matchSets.get(0).getIds()).containsExactly(997, 930, 901);
+            assertThat(matchSets.get(0).size()).isEqualTo(3);
+            assertThat(matchSets.get(0).contains(997)).isTrue();
+            assertThat(matchSets.get(0).contains(998)).isFalse();
+            assertThat(matchSets.get(0).contains(5)).isFalse();
+            assertThat(matchSets.get(1).isEmpty()).isTrue();
+            assertThat(matchSets.get(2).getIds()).containsExactly(937, 936);
+
+            MatchSet reused = matchSets.get(2);
+            reused.clear();
+            scanner.scanMatchSet(db, "rule0".getBytes(StandardCharsets.UTF_8), reused);
+            assertThat(reused.getIds()).containsExactly(1000);
+        }
+
+        // Terminates once every expression has matched
+        try (Database db = Database.compile(Arrays.asList(new Expression("a", 0), new Expression("b", 1)))) {
+            String input = "ab" + new String(new char[1000]).replace('\0', 'a');
+            MatchSet matchSet = new MatchSet(db);
+            scanner.scanMatchSet(db, input, matchSet);
+            assertThat(matchSet.getIds()).containsExactly(0, 1);
+
+            matchSet.clear();
+            AtomicInteger calls = new AtomicInteger();
+            RawMatchEventHandler handler = Scanner.matchSetHandler(matchSet);
+            int result = scanner.scan(db, ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), (id, from, to, flags) -> {
+                calls.incrementAndGet();
+                return handler.onMatch(id, from, to, flags);
+            });
+            assertThat(result).isEqualTo(HS_SCAN_TERMINATED);
+            assertThat(calls.get()).isEqualTo(2);
+            assertThrows(IllegalArgumentException.class, () -> scanner.scanMatchSet(database, "a", matchSet));
+        }
+    }
+
+    @Test
+    void scanFirstMatches() throws CompileErrorException {
+        List<Expression> frequent = Arrays.asList(
+                new Expression("a", ExpressionFlag.SOM_LEFTMOST, 0),
+                new Expression("b", ExpressionFlag.SOM_LEFTMOST, 1),
+                new Expression("c", ExpressionFlag.SOM_LEFTMOST, 2));
+
+        try (Database db = Database.compile(frequent)) {
+            String input = "\u4e16aaabab\u4e16bc";
+            assertThat(scanner.scan(db, input)).hasSize(8);
+            assertThat(scanner.scanFirstMatches(db, input))
+                    .extracting(Match::getMatchedExpression, Match::getStartPosition)
+                    .containsExactly(tuple(frequent.get(0), 1L), tuple(frequent.get(1), 4L), tuple(frequent.get(2), 9L));
+
+            // Terminates as soon as all expressions of interest have been seen
+            AtomicInteger calls = new AtomicInteger();
+            scanner.scanFirstMatches(db, input, (expression, from, to) -> calls.incrementAndGet() > 0, 1);
+            assertThat(calls.get()).isEqualTo(1);
+
+            List<Long> ends = new ArrayList<>();
+            scanner.scanFirstMatches(db, input.getBytes(StandardCharsets.UTF_8), (expression, from, to) -> ends.add(to), 2, 0);
+            assertThat(ends).containsExactly(4L, 14L);
+
+            assertThrows(IllegalArgumentException.class, () -> scanner.scanFirstMatches(db, "", 3));
+        }
+    }
 }
@@ -1,26 +1,39 @@
 package com.gliwka.hyperscan.wrapper;
 
-import com.gliwka.hyperscan.wrapper.mapping.ByteCharMapping;
+import com.gliwka.hyperscan.wrapper.mapping.ByteCharLookup;
+import com.gliwka.hyperscan.wrapper.mapping.IdentityMapping;
 import org.junit.jupiter.api.Test;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class Utf8EncoderTest {
 
+    private static ByteCharLookup encodeToBufferAndMap(ByteBuffer buffer, String input) {
+        byte[] encoded = Utf8Encoder.encode(input);
+        buffer.put(encoded);
+        ((Buffer) buffer).flip();
+        return Utf8Encoder.map(input, encoded);
+    }
+
     @Test
     public void testAsciiEncoding() {
         String input = "Hello, world!";
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // ASCII characters are 1 byte each in UTF-8, so byte index equals char index
         assertEquals(input.length(), buffer.limit());
         assertEquals(0, mapping.getCharIndex(0));  // 'H'
         assertEquals(6, mapping.getCharIndex(6));  // ','
         assertEquals(12, mapping.getCharIndex(12)); // '!'
+        assertInstanceOf(IdentityMapping.class, mapping);
+        assertEquals(input.length(), mapping.getMappingSize());
         
         // Verify actual byte values
         byte[] bytes = new byte[buffer.limit()];
@@ -39,7 +52,7 @@ public class Utf8EncoderTest {
         String input = "あいう";
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // Each character takes 3 bytes
         assertEquals(9, buffer.limit());
@@ -85,7 +98,7 @@ public class Utf8EncoderTest {
         String input = "𝄞";
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // Surrogate pair encodes to 4 bytes in UTF-8
         assertEquals(4, buffer.limit());
@@ -116,7 +129,7 @@ public class Utf8EncoderTest {
         String input = "A" + new String(new char[]{0xD800}) + "B"; // 0xD800 is a high surrogate
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // 'A' (1 byte) + '?' (1 byte) + 'B' (1 byte) = 3 bytes
         assertEquals(3, buffer.limit());
@@ -144,7 +157,7 @@ public class Utf8EncoderTest {
         String input = "A" + new String(new char[]{0xDC00}) + "B"; // 0xDC00 is a low surrogate
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // 'A' (1 byte) + '?' (1 byte) + 'B' (1 byte) = 3 bytes
         assertEquals(3, buffer.limit());
@@ -172,7 +185,7 @@ public class Utf8EncoderTest {
         String input = "ABC" + new String(new char[]{0xD800}); // 0xD800 is a high surrogate
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // 'A' (1 byte) + 'B' (1 byte) + 'C' (1 byte) + '?' (1 byte) = 4 bytes
         assertEquals(4, buffer.limit());
@@ -200,7 +213,7 @@ public class Utf8EncoderTest {
         String input = "ñáé";
         ByteBuffer buffer = ByteBuffer.allocate(100);
         
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // Each character takes 2 bytes in UTF-8
         assertEquals(6, buffer.limit());
@@ -245,7 +258,7 @@ public class Utf8EncoderTest {
                        new String(new char[]{0xDC00}) + " End";
         
         ByteBuffer buffer = ByteBuffer.allocate(100);
-        ByteCharMapping mapping = Utf8Encoder.encodeToBufferAndMap(buffer, input);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
         
         // Expected byte counts:
         // "Hi " - 3 bytes
@@ -326,4 +339,94 @@ public class Utf8EncoderTest {
         assertEquals((byte)'n', bytes[15]);
         assertEquals((byte)'d', bytes[16]);
     }
+
+    @Test
+    public void testEncodedLength() {
+        String[] inputs = {
+                "", "Hello", "Größe", "你好", "\uD83D\uDE00", "\uD83D", "\uDE00x", "\uD83Dx", "\uD83D\uD83D", "\uD83D\u4e16", "a\uD83D\uDE00b\uDE00\uD83D"
+        };
+
+        for (String input : inputs) {
+            ByteBuffer buffer = ByteBuffer.allocate(input.length() * 4);
+            encodeToBufferAndMap(buffer, input);
+            assertEquals(buffer.limit(), Utf8Encoder.encodedLength(input), input);
+        }
+    }
+
+    @Test
+    public void testAsciiIsMappedByIdentity() {
+        // Any string encoding to one byte per character maps by identity, including unpaired surrogates
+        for (String input : new String[]{"", "abc", "a\uD800b"}) {
+            ByteCharLookup mapping = Utf8Encoder.map(input, Utf8Encoder.encode(input));
+            assertInstanceOf(IdentityMapping.class, mapping, input);
+            assertEquals(input.length(), mapping.getMappingSize());
+        }
+
+        // A single multi-byte character anywhere in the string needs the UTF-8 mapping
+        for (String input : new String[]{"\u00e9abc", "abc\u00e9d", "abc\uD834\uDD1E"}) {
+            ByteCharLookup mapping = Utf8Encoder.map(input, Utf8Encoder.encode(input));
+            assertFalse(mapping instanceof IdentityMapping, input);
+        }
+    }
+
+    @Test
+    public void testLookupsInAnyOrder() {
+        String input = "abc\u00e9d\uD834\uDD1Ee";
+        ByteBuffer buffer = ByteBuffer.allocate(input.length() * 4);
+
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
+
+        assertEquals(11, buffer.limit());
+        assertFalse(mapping instanceof IdentityMapping);
+        int[] expected = {0, 1, 2, 3, 3, 4, 5, 5, 6, 6, 7};
+        for (int i = expected.length - 1; i >= 0; i--) {
+            assertEquals(expected[i], mapping.getCharIndex(i), "byte " + i);
+        }
+        for (int i = 0; i < expected.length; i += 3) {
+            assertEquals(expected[i], mapping.getCharIndex(i), "byte " + i);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> mapping.getCharIndex(11));
+    }
+
+    @Test
+    public void testRandomLookupsInLargeString() {
+        String[] parts = {"a", "\u00e9", "\u4e16", "\uD834\uDD1E", "\uD800"};
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append(parts[random.nextInt(parts.length)]);
+        }
+        String input = builder.toString();
+
+        // Expected char index of every byte
+        int[] expected = new int[Utf8Encoder.encodedLength(input)];
+        int byteIndex = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < input.length() && Character.isLowSurrogate(input.charAt(i + 1))) {
+                expected[byteIndex++] = i;
+                expected[byteIndex++] = i;
+                expected[byteIndex++] = i + 1;
+                expected[byteIndex++] = i + 1;
+                i++;
+            } else {
+                int length = Character.isSurrogate(c) ? 1 : new String(new char[]{c}).getBytes(StandardCharsets.UTF_8).length;
+                for (int j = 0; j < length; j++) {
+                    expected[byteIndex++] = i;
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        ByteCharLookup mapping = encodeToBufferAndMap(buffer, input);
+        assertEquals(expected.length, mapping.getMappingSize());
+
+        for (int i = 0; i < 20000; i++) {
+            int index = random.nextInt(expected.length);
+            assertEquals(expected[index], mapping.getCharIndex(index), "byte " + index);
+        }
+        for (int i = expected.length - 1; i >= 0; i--) {
+            assertEquals(expected[i], mapping.getCharIndex(i), "byte " + i);
+        }
+    }
 }